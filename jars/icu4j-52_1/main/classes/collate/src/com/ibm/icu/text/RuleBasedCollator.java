@@ -17,8 +17,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import com.ibm.icu.impl.BOCU;
 import com.ibm.icu.impl.ICUDebug;
@@ -241,14 +240,13 @@ public final class RuleBasedCollator extends Collator {
         RuleBasedCollator result = (RuleBasedCollator) super.clone();
         if (latinOneCEs_ != null) {
             result.m_reallocLatinOneCEs_ = true;
-            result.m_ContInfo_ = new ContractionInfo();
         }
 
         // since all collation data in the RuleBasedCollator do not change
         // we can safely assign the result.fields to this collator 
         // except in cases where we can't
         result.collationBuffer = null;
-        result.frozenLock = frozen ? new ReentrantLock() : null;
+        result.frozenBufferPool = frozen ? new ConcurrentLinkedQueue<CollationBuffer>() : null;
         return result;
     }
 
@@ -292,7 +290,7 @@ public final class RuleBasedCollator extends Collator {
      * @stable ICU 4.8
      */
     public boolean isFrozen() {
-        return frozenLock != null;
+        return frozenBufferPool != null;
     }
 
     /**
@@ -302,7 +300,7 @@ public final class RuleBasedCollator extends Collator {
      */
     public Collator freeze() {
         if (!isFrozen()) {
-            frozenLock = new ReentrantLock();
+            frozenBufferPool = new ConcurrentLinkedQueue<CollationBuffer>();
         }
         return this;
     }
@@ -1435,6 +1433,99 @@ public final class RuleBasedCollator extends Collator {
         }
     }
 
+    /**
+     * Compares the source text String to the target text String, giving the same result as
+     * {@link #compare(String, String)}, but starting with a primary strength pass that stops at the first
+     * primary difference and doesn't buffer collation elements for the other levels. The full comparison is only
+     * done when the primary weights tie. This suits binary searches, where most probes are settled by primary
+     * differences.
+     * <p>
+     * Strings that can use the Latin-1 fast path, and collators with alternate handling shifted, go straight to the
+     * full comparison, which is already primary first in those cases.
+     * </p>
+     * 
+     * @param source
+     *            the source text String.
+     * @param target
+     *            the target text String.
+     * @return the same value as {@link #compare(String, String)}.
+     * @draft ICU 52
+     * @provisional This API might change or be removed in a future release.
+     */
+    public int comparePrimaryFirst(String source, String target) {
+        if (source.equals(target)) {
+            return 0;
+        }
+        CollationBuffer buffer = null;
+        try {
+            buffer = getCollationBuffer();
+            int offset = getFirstUnmatchedOffset(source, target);
+            boolean useLatinOne = latinOneUse_
+                    && !((offset < source.length() && source.charAt(offset) > ENDOFLATINONERANGE_)
+                            || (offset < target.length() && target.charAt(offset) > ENDOFLATINONERANGE_));
+            if (!useLatinOne && !m_isAlternateHandlingShifted_) {
+                int result = comparePrimaryOnly(source, target, offset, buffer);
+                if (result != 0) {
+                    return result;
+                }
+                buffer.resetBuffers();
+            }
+            return compare(source, target, buffer);
+        } finally {
+            releaseCollationBuffer(buffer);
+        }
+    }
+
+    /**
+     * The non-shifted part of doPrimaryCompare, without filling the CE buffers.
+     * 
+     * @return the primary comparison result, or 0 if the primary weights are equal.
+     */
+    private final int comparePrimaryOnly(String source, String target, int textoffset, CollationBuffer buffer) {
+        buffer.m_srcUtilIter_.setText(source);
+        buffer.m_srcUtilColEIter_.setText(buffer.m_srcUtilIter_, textoffset);
+        buffer.m_tgtUtilIter_.setText(target);
+        buffer.m_tgtUtilColEIter_.setText(buffer.m_tgtUtilIter_, textoffset);
+
+        while (true) {
+            int sorder;
+            int sPrimary;
+            do {
+                sorder = buffer.m_srcUtilColEIter_.next();
+                sPrimary = sorder & CE_PRIMARY_MASK_;
+            } while (sPrimary == CollationElementIterator.IGNORABLE);
+
+            int torder;
+            int tPrimary;
+            do {
+                torder = buffer.m_tgtUtilColEIter_.next();
+                tPrimary = torder & CE_PRIMARY_MASK_;
+            } while (tPrimary == CollationElementIterator.IGNORABLE);
+
+            if (sPrimary == tPrimary) {
+                if (sorder == CollationElementIterator.NULLORDER) {
+                    return torder == CollationElementIterator.NULLORDER ? 0 : -1;
+                } else if (torder == CollationElementIterator.NULLORDER) {
+                    return 1;
+                }
+            } else {
+                if (sorder == CollationElementIterator.NULLORDER) {
+                    return -1;
+                }
+                if (torder == CollationElementIterator.NULLORDER) {
+                    return 1;
+                }
+                if (!isContinuation(sorder) && m_leadBytePermutationTable_ != null) {
+                    sPrimary = (m_leadBytePermutationTable_[sPrimary >>> 24] << 24) | (sPrimary & 0x00FFFFFF);
+                    tPrimary = (m_leadBytePermutationTable_[tPrimary >>> 24] << 24) | (tPrimary & 0x00FFFFFF);
+                }
+                sPrimary >>>= CE_PRIMARY_SHIFT_;
+                tPrimary >>>= CE_PRIMARY_SHIFT_;
+                return sPrimary < tPrimary ? -1 : 1;
+            }
+        }
+    }
+
     private int compare(String source, String target, CollationBuffer buffer) {
         // Find the length of any leading portion that is equal
         int offset = getFirstUnmatchedOffset(source, target);
@@ -2410,9 +2501,10 @@ public final class RuleBasedCollator extends Collator {
      */
     private boolean m_isCaseLevel_;
     /**
-     * Frozen state of the collator.
+     * Frozen state of the collator. A frozen collator hands each concurrent caller its own
+     * CollationBuffer from this pool instead of serializing them on a single buffer.
      */
-    private Lock frozenLock;
+    private ConcurrentLinkedQueue<CollationBuffer> frozenBufferPool;
 
 
     private static final int SORT_BUFFER_INIT_SIZE_ = 128;
@@ -2508,6 +2600,11 @@ public final class RuleBasedCollator extends Collator {
         protected int m_srcUtilOffset_;
         protected int m_tgtUtilOffset_;
 
+        /**
+         * Used by compareUseLatin1 for contractions
+         */
+        protected final ContractionInfo m_contInfo_ = new ContractionInfo();
+
         private CollationBuffer() {
             initBuffers();
         }
@@ -4326,9 +4423,6 @@ public final class RuleBasedCollator extends Collator {
         } else {
             Arrays.fill(latinOneCEs_, 0);
         }
-        if (m_ContInfo_ == null) {
-            m_ContInfo_ = new ContractionInfo();
-        }
         char ch = 0;
         // StringBuffer sCh = new StringBuffer();
         // CollationElementIterator it = getCollationElementIterator(sCh.toString());
@@ -4468,13 +4562,15 @@ public final class RuleBasedCollator extends Collator {
         return true;
     }
 
+    /**
+     * Where getLatinOneContraction is in its string. Kept in the CollationBuffer, so that threads sharing a frozen
+     * collator each have their own.
+     */
     private static class ContractionInfo {
         int index;
     }
 
-    ContractionInfo m_ContInfo_;
-
-    private int getLatinOneContraction(int strength, int CE, String s) {
+    private int getLatinOneContraction(int strength, int CE, String s, ContractionInfo contInfo) {
         // int strength, int CE, String s, Integer ind) {
         int len = s.length();
         // const UChar *UCharOffset = (UChar *)coll->image+getContractOffset(CE&0xFFF);
@@ -4489,10 +4585,10 @@ public final class RuleBasedCollator extends Collator {
                                          * return(coll->latinOneCEs[strength*coll->latinOneTableLen+latinOneOffset]); } else { schar = s[*index]; }
                                          * } else {
                                          */
-                                        if (m_ContInfo_.index == len) {
+                                        if (contInfo.index == len) {
                                             return (latinOneCEs_[strength * latinOneTableLen_ + latinOneOffset]);
                                         } else {
-                                            schar = s.charAt(m_ContInfo_.index);
+                                            schar = s.charAt(contInfo.index);
                                         }
                                         // }
 
@@ -4502,7 +4598,7 @@ public final class RuleBasedCollator extends Collator {
                                         }
 
                                         if (schar == tchar) {
-                                            m_ContInfo_.index++;
+                                            contInfo.index++;
                                             return (latinOneCEs_[strength * latinOneTableLen_ + latinOneOffset + offset]);
                                         } else {
                                             if (schar > ENDOFLATINONERANGE_ /* & 0xFF00 */) {
@@ -4511,7 +4607,7 @@ public final class RuleBasedCollator extends Collator {
                                             // skip completely ignorables
                                             int isZeroCE = m_trie_.getLeadValue(schar); // UTRIE_GET32_FROM_LEAD(coll->mapping, schar);
                                             if (isZeroCE == 0) { // we have to ignore completely ignorables
-                                                m_ContInfo_.index++;
+                                                contInfo.index++;
                                                 continue;
                                             }
 
@@ -4566,9 +4662,9 @@ public final class RuleBasedCollator extends Collator {
                         // specials can basically be either contractions or bail-out signs. If we get anything
                         // else, we'll bail out anywasy
                         if (getTag(sOrder) == CollationElementIterator.CE_CONTRACTION_TAG_) {
-                            m_ContInfo_.index = sIndex;
-                            sOrder = getLatinOneContraction(0, sOrder, source);
-                            sIndex = m_ContInfo_.index;
+                            buffer.m_contInfo_.index = sIndex;
+                            sOrder = getLatinOneContraction(0, sOrder, source, buffer.m_contInfo_);
+                            sIndex = buffer.m_contInfo_.index;
                             haveContractions = true; // if there are contractions, we cannot do French secondary
                             // However, if there are contractions in the table, but we always use just one char,
                             // we might be able to do French. This should be checked out.
@@ -4598,9 +4694,9 @@ public final class RuleBasedCollator extends Collator {
                     if (isSpecial(tOrder)) {
                         // Handling specials, see the comments for source
                         if (getTag(tOrder) == CollationElementIterator.CE_CONTRACTION_TAG_) {
-                            m_ContInfo_.index = tIndex;
-                            tOrder = getLatinOneContraction(0, tOrder, target);
-                            tIndex = m_ContInfo_.index;
+                            buffer.m_contInfo_.index = tIndex;
+                            tOrder = getLatinOneContraction(0, tOrder, target, buffer.m_contInfo_);
+                            tIndex = buffer.m_contInfo_.index;
                             haveContractions = true;
                         }
                         if (isSpecial(tOrder)/* == UCOL_BAIL_OUT_CE */) {
@@ -4661,9 +4757,9 @@ public final class RuleBasedCollator extends Collator {
                         sChar = source.charAt(sIndex++); // [sIndex++];
                         sOrder = latinOneCEs_[offset + sChar];
                         if (isSpecial(sOrder)) {
-                            m_ContInfo_.index = sIndex;
-                            sOrder = getLatinOneContraction(1, sOrder, source);
-                            sIndex = m_ContInfo_.index;
+                            buffer.m_contInfo_.index = sIndex;
+                            sOrder = getLatinOneContraction(1, sOrder, source, buffer.m_contInfo_);
+                            sIndex = buffer.m_contInfo_.index;
                         }
                     }
 
@@ -4678,9 +4774,9 @@ public final class RuleBasedCollator extends Collator {
                         tChar = target.charAt(tIndex++); // [tIndex++];
                         tOrder = latinOneCEs_[offset + tChar];
                         if (isSpecial(tOrder)) {
-                            m_ContInfo_.index = tIndex;
-                            tOrder = getLatinOneContraction(1, tOrder, target);
-                            tIndex = m_ContInfo_.index;
+                            buffer.m_contInfo_.index = tIndex;
+                            tOrder = getLatinOneContraction(1, tOrder, target, buffer.m_contInfo_);
+                            tIndex = buffer.m_contInfo_.index;
                         }
                     }
                     if (endOfSource) {
@@ -4775,9 +4871,9 @@ public final class RuleBasedCollator extends Collator {
                     sChar = source.charAt(sIndex++); // [sIndex++];
                     sOrder = latinOneCEs_[offset + sChar];
                     if (isSpecial(sOrder)) {
-                        m_ContInfo_.index = sIndex;
-                        sOrder = getLatinOneContraction(2, sOrder, source);
-                        sIndex = m_ContInfo_.index;
+                        buffer.m_contInfo_.index = sIndex;
+                        sOrder = getLatinOneContraction(2, sOrder, source, buffer.m_contInfo_);
+                        sIndex = buffer.m_contInfo_.index;
                     }
                 }
                 while (tOrder == 0) {
@@ -4791,9 +4887,9 @@ public final class RuleBasedCollator extends Collator {
                     tChar = target.charAt(tIndex++); // [tIndex++];
                     tOrder = latinOneCEs_[offset + tChar];
                     if (isSpecial(tOrder)) {
-                        m_ContInfo_.index = tIndex;
-                        tOrder = getLatinOneContraction(2, tOrder, target);
-                        tIndex = m_ContInfo_.index;
+                        buffer.m_contInfo_.index = tIndex;
+                        tOrder = getLatinOneContraction(2, tOrder, target, buffer.m_contInfo_);
+                        tIndex = buffer.m_contInfo_.index;
                     }
                 }
                 if (endOfSource) {
@@ -4866,7 +4962,13 @@ public final class RuleBasedCollator extends Collator {
 
     private final CollationBuffer getCollationBuffer() {
         if (isFrozen()) {
-            frozenLock.lock();
+            CollationBuffer buffer = frozenBufferPool.poll();
+            if (buffer == null) {
+                buffer = new CollationBuffer();
+            } else {
+                buffer.resetBuffers();
+            }
+            return buffer;
         }
         if (collationBuffer == null) {
             collationBuffer = new CollationBuffer();
@@ -4877,8 +4979,8 @@ public final class RuleBasedCollator extends Collator {
     }
 
     private final void releaseCollationBuffer(CollationBuffer buffer) {
-        if (isFrozen()) {
-            frozenLock.unlock();
+        if (isFrozen() && buffer != null) {
+            frozenBufferPool.offer(buffer);
         }
     }
 }
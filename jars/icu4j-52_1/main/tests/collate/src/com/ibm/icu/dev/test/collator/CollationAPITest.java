@@ -1184,6 +1184,39 @@ public class CollationAPITest extends TestFmwk {
         }
     }
 
+    /*
+     * Tests that RuleBasedCollator.comparePrimaryFirst(String, String) always agrees with compare(String, String)
+     */
+    public void TestComparePrimaryFirst() {
+        String[] data = {
+            "", "a", "A", "ab", "aB", "\u00e4b", "abc", "abd", "b", "co-op", "coop", "Co-op",
+            "\u00c4pfel", "apfel", "Apfel", "\u0430\u0431\u0432", "\u0410\u0431\u0432", "\u0430\u0431",
+            "\u0435\u0301", "\u0451", "\u03b1\u03b2", "\u0391\u03b2", "\u3042", "\u30a2", "\u4e00\u4e8c",
+            "\u4e00", "x\u0301y", "xy", "\ud800\udc00", "\ud800\udc01",
+        };
+        int[] strengths = { Collator.PRIMARY, Collator.SECONDARY, Collator.TERTIARY, Collator.QUATERNARY,
+                Collator.IDENTICAL };
+        for (int s = 0; s < strengths.length; s++) {
+            for (int shifted = 0; shifted < 2; shifted++) {
+                RuleBasedCollator col = (RuleBasedCollator) Collator.getInstance(ULocale.ENGLISH);
+                col.setStrength(strengths[s]);
+                col.setAlternateHandlingShifted(shifted == 1);
+                col.freeze();
+                for (int i = 0; i < data.length; i++) {
+                    for (int j = 0; j < data.length; j++) {
+                        int expected = Integer.signum(col.compare(data[i], data[j]));
+                        int actual = Integer.signum(col.comparePrimaryFirst(data[i], data[j]));
+                        if (expected != actual) {
+                            errln("comparePrimaryFirst(" + Utility.hex(data[i]) + ", " + Utility.hex(data[j])
+                                    + ") at strength " + strengths[s] + (shifted == 1 ? " shifted" : "")
+                                    + " gave " + actual + ", compare gave " + expected);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     /*
      * Tests the method public void setDecomposition(int decomposition)
      */
@@ -41,6 +41,7 @@ public class CollationPerformanceTest {
         + "-level n                   Sort level, 1 to 5, for Primary, Secndary, Tertiary, Quaternary, Identical\n"
         + "-keyhist                   Produce a table sort key size vs. string length\n"
         + "-binsearch                 Binary Search timing test\n"
+        + "-threads n                 Also run the binary search on n threads sharing one frozen collator\n"
         + "-keygen                    Sort Key Generation timing test\n"
         + "-qsort                     Quicksort timing test\n"
         + "-iter                      Iteration Performance Test\n"
@@ -58,6 +59,7 @@ public class CollationPerformanceTest {
     static StringBuffer temp_opt_terse      = new StringBuffer("false");
     static StringBuffer temp_opt_qsort      = new StringBuffer("");
     static StringBuffer temp_opt_binsearch  = new StringBuffer("");
+    static StringBuffer temp_opt_threads    = new StringBuffer("0");
     static StringBuffer temp_opt_icu        = new StringBuffer("true");
     //static StringBuffer opt_win        = new StringBuffer("");      // Run with Windows native functions.
     //static StringBuffer opt_unix       = new StringBuffer("");      // Run with UNIX strcoll, strxfrm functions.
@@ -90,6 +92,7 @@ public class CollationPerformanceTest {
     static boolean  opt_terse      = false;
     static boolean  opt_qsort      = false;
     static boolean  opt_binsearch  = false;
+    static int      opt_threads    = 0;
     static boolean  opt_icu        = true;
     //static boolean  opt_win        = false;      // Run with Windows native functions.
     //static boolean  opt_unix       = false;      // Run with UNIX strcoll, strxfrm functions.
@@ -118,6 +121,7 @@ public class CollationPerformanceTest {
         new OptionSpec("-rules", 2, temp_opt_rules),
         new OptionSpec("-qsort", 0, temp_opt_qsort),
         new OptionSpec("-binsearch", 0, temp_opt_binsearch),
+        new OptionSpec("-threads", 1, temp_opt_threads),
         new OptionSpec("-iter", 0, temp_opt_itertest),
         //new OptionSpec("-win", 0, temp_opt_win),
         //new OptionSpec("-unix", 0, temp_opt_unix),
@@ -176,6 +180,9 @@ public class CollationPerformanceTest {
         
         if (opt_binsearch) {
             collPerf.doBinarySearch();
+            if (opt_threads > 0) {
+                collPerf.doThreadedBinarySearch();
+            }
         }
         
         if (opt_keygen) {
@@ -474,6 +481,98 @@ public class CollationPerformanceTest {
         }
     }
     
+    /**---------------------------------------------------------------------------------------
+     *
+     *    doThreadedBinarySearch()    The ICU binary search test, run first on one thread and
+     *                                then concurrently on opt_threads threads, all sharing one
+     *                                frozen collator.  Each thread does the full single-thread
+     *                                workload, so with no contention the elapsed time stays flat
+     *                                and the throughput scales with the thread count.
+     *
+     *---------------------------------------------------------------------------------------
+     */
+    void doThreadedBinarySearch() {
+        final com.ibm.icu.text.Collator frozenCol = icuCol.cloneAsThawed().freeze();
+        double dLoopCount = opt_loopCount * 3000 / (Math.log(tests.length) / Math.log(10)* tests.length);
+        final int adj_loopCount = Math.max(1, (int)dLoopCount);
+
+        double singleThreadRate = 0;
+        int[] threadCounts = opt_threads > 1 ? new int[] {1, opt_threads} : new int[] {1};
+        for (int t = 0; t < threadCounts.length; t++) {
+            final int numThreads = threadCounts[t];
+            final long[] counts = new long[numThreads];
+            Thread[] threads = new Thread[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                final int threadIndex = i;
+                threads[i] = new Thread() {
+                    public void run() {
+                        counts[threadIndex] = binarySearchAll(frozenCol, adj_loopCount);
+                    }
+                };
+            }
+            callGC();
+            long startTime = System.currentTimeMillis();
+            for (int i = 0; i < numThreads; i++) {
+                threads[i].start();
+            }
+            for (int i = 0; i < numThreads; i++) {
+                try {
+                    threads[i].join();
+                } catch (InterruptedException e) {
+                    System.err.println("Interrupted waiting for " + threads[i]);
+                }
+            }
+            long elapsedTime = Math.max(1, System.currentTimeMillis() - startTime);
+
+            long gCount = 0;
+            for (int i = 0; i < numThreads; i++) {
+                gCount += counts[i];
+            }
+            double rate = (double)gCount / elapsedTime;
+            if (numThreads == 1) {
+                singleThreadRate = rate;
+            }
+            if (!opt_terse) {
+                System.out.println("threaded binary search:  threads = " + numThreads
+                        + ", total # of string compares = " + gCount
+                        + ", elapsed ms = " + elapsedTime
+                        + ", compares per ms = " + nf.format(rate)
+                        + ", scaling = " + nf.format(rate / singleThreadRate));
+            } else {
+                System.out.println(numThreads + " " + nf.format(rate / singleThreadRate));
+            }
+        }
+    }
+
+    long binarySearchAll(com.ibm.icu.text.Collator col, int loopCount) {
+        long gCount = 0;
+        for (int loops = 0; loops < loopCount; loops++) {
+            for (int j = 0; j < tests.length; j++) {
+                int hi = tests.length - 1;
+                int lo = 0;
+                int guess = -1;
+                for (;;) {
+                    int newGuess = (hi + lo) / 2;
+                    if (newGuess == guess) {
+                        break;
+                    }
+                    guess = newGuess;
+                    int r = col.compare(tests[j], tests[guess]);
+                    gCount++;
+                    if (r == 0) {
+                        break;
+                    }
+                    if (r < 0) {
+                        hi = guess;
+                    } else {
+                        lo = guess;
+                    }
+                }
+            }
+        }
+        return gCount;
+    }
+
     /**---------------------------------------------------------------------------------------
      *
      *   doKeyGen()     Key Generation Timing Test
@@ -950,6 +1049,7 @@ public class CollationPerformanceTest {
         if (temp_opt_binsearch.toString().equalsIgnoreCase("true")) {
             opt_binsearch = true;
         }
+        opt_threads    = Integer.parseInt(temp_opt_threads.toString());
         if (temp_opt_icu.toString().equalsIgnoreCase("true")) {
             opt_icu = true;
         }
@@ -16,7 +16,9 @@ package com.hughes.android.dictionary;
 
 public class C {
 
+    // Old, Java-serialized version; only read if there's no DICTIONARY_CONFIG.
     static final String DICTIONARY_CONFIGS = "dictionaryConfigs2";
+    static final String DICTIONARY_CONFIG = "dictionaryConfig3";
 
     public static final String DICT_FILE = "dictFile";
     public static final String INDEX_SHORT_NAME = "indexShortName";
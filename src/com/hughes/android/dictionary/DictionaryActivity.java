@@ -17,6 +17,7 @@ package com.hughes.android.dictionary;
 import android.annotation.SuppressLint;
 import android.app.Dialog;
 import android.app.SearchManager;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
@@ -74,6 +75,7 @@ import com.hughes.android.dictionary.DictionaryInfo.IndexInfo;
 import com.hughes.android.dictionary.engine.Dictionary;
 import com.hughes.android.dictionary.engine.EntrySource;
 import com.hughes.android.dictionary.engine.HtmlEntry;
+import com.hughes.android.dictionary.engine.HtmlEntryCache;
 import com.hughes.android.dictionary.engine.Index;
 import com.hughes.android.dictionary.engine.PairEntry;
 import com.hughes.android.dictionary.engine.Index.IndexEntry;
@@ -85,27 +87,28 @@ import com.hughes.android.dictionary.engine.TokenRow;
 import com.hughes.android.dictionary.engine.TransliteratorManager;
 import com.hughes.android.util.IntentLauncher;
 import com.hughes.android.util.NonLinkClickableSpan;
+import com.hughes.android.util.ZipEntryRandomAccessFile;
 import com.hughes.util.StringUtil;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.io.RandomAccessFile;
-import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -116,6 +119,8 @@ public class DictionaryActivity extends SherlockListActivity {
     DictionaryApplication application;
 
     File dictFile = null;
+    // Shared with HtmlDisplayActivity through the application.
+    DictionaryApplication.OpenDictionary openDictionary = null;
     RandomAccessFile dictRaf = null;
 
     Dictionary dictionary = null;
@@ -137,6 +142,8 @@ public class DictionaryActivity extends SherlockListActivity {
 
     private SearchOperation currentSearchOperation = null;
 
+    final RowPrefetcher rowPrefetcher = new RowPrefetcher();
+
     TextToSpeech textToSpeech;
     volatile boolean ttsReady;
 
@@ -152,9 +159,23 @@ public class DictionaryActivity extends SherlockListActivity {
     MenuItem nextWordMenuItem, previousWordMenuItem;
 
     // Never null.
-    private File wordList = null;
+    private WordList wordList = null;
     private boolean saveOnlyFirstSubentry = false;
     private boolean clickOpensContextMenu = false;
+    // Redraws the rows once the word list knows which tokens are saved.
+    private final WordList.LoadListener wordListLoadListener = new WordList.LoadListener() {
+        @Override
+        public void onLoaded(final WordList loaded) {
+            uiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (indexAdapter instanceof IndexAdapter) {
+                        ((IndexAdapter) indexAdapter).notifyDataSetChanged();
+                    }
+                }
+            });
+        }
+    };
 
     // Visible for testing.
     ListAdapter indexAdapter = null;
@@ -320,20 +341,14 @@ public class DictionaryActivity extends SherlockListActivity {
         });
 
         try {
-            final String name = application.getDictionaryName(dictFile.getName());
+            final String name = application.getDictionaryName(ZipEntryRandomAccessFile
+                    .unzippedName(dictFile));
             this.setTitle("QuickDic: " + name);
-            dictRaf = new RandomAccessFile(dictFile, "r");
-            dictionary = new Dictionary(dictRaf);
+            openDictionary = application.openDictionary(dictFile);
+            dictRaf = openDictionary.raf;
+            dictionary = openDictionary.dictionary;
         } catch (Exception e) {
             Log.e(LOG, "Unable to load dictionary.", e);
-            if (dictRaf != null) {
-                try {
-                    dictRaf.close();
-                } catch (IOException e1) {
-                    Log.e(LOG, "Unable to close dictRaf.", e1);
-                }
-                dictRaf = null;
-            }
             Toast.makeText(this, getString(R.string.invalidDictionary, "", e.getMessage()),
                     Toast.LENGTH_LONG).show();
             startActivity(DictionaryManagerActivity.getLaunchIntent());
@@ -355,38 +370,36 @@ public class DictionaryActivity extends SherlockListActivity {
         index = dictionary.indices.get(indexIndex);
         setListAdapter(new IndexAdapter(index));
 
-        // Pre-load the collators.
-        new Thread(new Runnable() {
-            public void run() {
-                final long startMillis = System.currentTimeMillis();
-                try {
-                    TransliteratorManager.init(new TransliteratorManager.Callback() {
+        // Pre-load the collators, the current index first.  Once they're
+        // ready, redo the search in case it was done with the fallback
+        // normalization.
+        final AtomicInteger indicesToPrep = new AtomicInteger(dictionary.indices.size());
+        for (int i = 0; i < dictionary.indices.size(); ++i) {
+            final Index indexToPrep = dictionary.indices.get(i);
+            final TransliteratorManager.Callback onPrepped = new TransliteratorManager.Callback() {
+                @Override
+                public void onTransliteratorReady() {
+                    if (indicesToPrep.decrementAndGet() == 0) {
+                        indexPrepFinished = true;
+                    }
+                    uiHandler.post(new Runnable() {
                         @Override
-                        public void onTransliteratorReady() {
-                            uiHandler.post(new Runnable() {
-                                @Override
-                                public void run() {
-                                    onSearchTextChange(searchView.getQuery().toString());
-                                }
-                            });
+                        public void run() {
+                            if (index == indexToPrep) {
+                                onSearchTextChange(searchView.getQuery().toString());
+                            }
                         }
                     });
-
-                    for (final Index index : dictionary.indices) {
-                        final String searchToken = index.sortedIndexEntries.get(0).token;
-                        final IndexEntry entry = index.findExact(searchToken);
-                        if (!searchToken.equals(entry.token)) {
-                            Log.e(LOG, "Couldn't find token: " + searchToken + ", " + entry.token);
-                        }
-                    }
+                }
+            };
+            if (TransliteratorManager.warmUp(indexToPrep,
+                    i == indexIndex ? TransliteratorManager.PRIORITY_NOW
+                            : TransliteratorManager.PRIORITY_SOON, onPrepped)) {
+                if (indicesToPrep.decrementAndGet() == 0) {
                     indexPrepFinished = true;
-                } catch (Exception e) {
-                    Log.w(LOG,
-                            "Exception while prepping.  This can happen if dictionary is closed while search is happening.");
                 }
-                Log.d(LOG, "Prepping indices took:" + (System.currentTimeMillis() - startMillis));
             }
-        }).start();
+        }
 
         String fontName = prefs.getString(getString(R.string.fontKey), "FreeSerif.ttf.jpg");
         if ("SYSTEM".equals(fontName)) {
@@ -416,13 +429,17 @@ public class DictionaryActivity extends SherlockListActivity {
         // ContextMenu.
         registerForContextMenu(getListView());
 
+        getListView().setOnScrollListener(rowPrefetcher);
+
         // Cache some prefs.
-        wordList = application.getWordListFile();
+        wordList = WordList.get(application.getWordListFile());
+        wordList.addLoadListener(wordListLoadListener);
         saveOnlyFirstSubentry = prefs.getBoolean(getString(R.string.saveOnlyFirstSubentryKey),
                 false);
         clickOpensContextMenu = prefs.getBoolean(getString(R.string.clickOpensContextMenuKey),
                 false);
-        Log.d(LOG, "wordList=" + wordList + ", saveOnlyFirstSubentry=" + saveOnlyFirstSubentry);
+        Log.d(LOG, "wordList=" + wordList.getFile() + ", saveOnlyFirstSubentry="
+                + saveOnlyFirstSubentry);
 
         onCreateSetupActionBarAndSearchView();
 
@@ -543,6 +560,40 @@ public class DictionaryActivity extends SherlockListActivity {
         super.onPause();
     }
 
+    // Only ever called on API 14+.
+    @SuppressLint("NewApi")
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (dictionary == null) {
+            return;
+        }
+        final HtmlEntryCache htmlEntryCache = dictionary.htmlEntryCache;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            htmlEntryCache.trimToSize(0);
+            clearNormalizedTokenCaches();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            htmlEntryCache.trimToSize(htmlEntryCache.getMaxBytes() / 4);
+        }
+        Log.d(LOG, "onTrimMemory(" + level + "), htmlEntryCache: " + htmlEntryCache);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (dictionary != null) {
+            dictionary.htmlEntryCache.trimToSize(0);
+            clearNormalizedTokenCaches();
+        }
+    }
+
+    private void clearNormalizedTokenCaches() {
+        for (final Index dictionaryIndex : dictionary.indices) {
+            dictionaryIndex.clearNormalizedTokenCache();
+        }
+    }
+
     @Override
     /**
      * Invoked when MyWebView returns, since the user might have clicked some
@@ -569,6 +620,12 @@ public class DictionaryActivity extends SherlockListActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // Before the RAF is closed, and whether or not there is one, since
+        // it has a thread.
+        rowPrefetcher.shutdown();
+        if (wordList != null) {
+            wordList.removeLoadListener(wordListLoadListener);
+        }
         if (dictRaf == null) {
             return;
         }
@@ -576,19 +633,15 @@ public class DictionaryActivity extends SherlockListActivity {
         final SearchOperation searchOperation = currentSearchOperation;
         currentSearchOperation = null;
 
-        // Before we close the RAF, we have to wind the current search down.
+        // Before the RAF can be closed, we have to wind the current search down.
         if (searchOperation != null) {
             Log.d(LOG, "Interrupting search to shut down.");
             currentSearchOperation = null;
             searchOperation.interrupted.set(true);
         }
 
-        try {
-            Log.d(LOG, "Closing RAF.");
-            dictRaf.close();
-        } catch (IOException e) {
-            Log.e(LOG, "Failed to close dictionary", e);
-        }
+        application.releaseDictionary(openDictionary);
+        openDictionary = null;
         dictRaf = null;
     }
 
@@ -823,7 +876,8 @@ public class DictionaryActivity extends SherlockListActivity {
                     dialog.setContentView(R.layout.about_dictionary_dialog);
                     final TextView textView = (TextView) dialog.findViewById(R.id.text);
 
-                    final String name = application.getDictionaryName(dictFile.getName());
+                    final String name = application.getDictionaryName(ZipEntryRandomAccessFile
+                            .unzippedName(dictFile));
                     dialog.setTitle(name);
 
                     final StringBuilder builder = new StringBuilder();
@@ -880,7 +934,7 @@ public class DictionaryActivity extends SherlockListActivity {
         final RowBase row = (RowBase) getListAdapter().getItem(adapterContextMenuInfo.position);
 
         final android.view.MenuItem addToWordlist = menu.add(getString(R.string.addToWordList,
-                wordList.getName()));
+                wordList.getFile().getName()));
         addToWordlist
                 .setOnMenuItemClickListener(new android.view.MenuItem.OnMenuItemClickListener() {
                     public boolean onMenuItemClick(android.view.MenuItem item) {
@@ -997,29 +1051,30 @@ public class DictionaryActivity extends SherlockListActivity {
         }
     }
 
-    @SuppressLint("SimpleDateFormat")
     void onAppendToWordList(final RowBase row) {
         defocusSearchText();
 
-        final StringBuilder rawText = new StringBuilder();
-        rawText.append(new SimpleDateFormat("yyyy.MM.dd HH:mm:ss").format(new Date())).append("\t");
-        rawText.append(index.longName).append("\t");
-        rawText.append(row.getTokenRow(true).getToken()).append("\t");
-        rawText.append(row.getRawText(saveOnlyFirstSubentry));
-        Log.d(LOG, "Writing : " + rawText);
-
-        try {
-            wordList.getParentFile().mkdirs();
-            final PrintWriter out = new PrintWriter(new FileWriter(wordList, true));
-            out.println(rawText.toString());
-            out.close();
-        } catch (Exception e) {
-            Log.e(LOG, "Unable to append to " + wordList.getAbsolutePath(), e);
-            Toast.makeText(this,
-                    getString(R.string.failedAddingToWordList, wordList.getAbsolutePath()),
-                    Toast.LENGTH_LONG).show();
+        // The token row has usually been read by the prefetcher already.
+        final String token = row.getTokenRow(true).getToken();
+        wordList.append(index.longName, token, row.getRawText(saveOnlyFirstSubentry),
+                new WordList.Callback() {
+                    @Override
+                    public void onAppendFailed(final File file, final IOException e) {
+                        uiHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                Toast.makeText(DictionaryActivity.this,
+                                        getString(R.string.failedAddingToWordList,
+                                                file.getAbsolutePath()),
+                                        Toast.LENGTH_LONG).show();
+                            }
+                        });
+                    }
+                });
+        // To show it as saved.
+        if (indexAdapter instanceof IndexAdapter) {
+            ((IndexAdapter) indexAdapter).notifyDataSetChanged();
         }
-        return;
     }
 
     @SuppressWarnings("deprecation")
@@ -1230,12 +1285,19 @@ public class DictionaryActivity extends SherlockListActivity {
     static ViewGroup.LayoutParams WEIGHT_0 = new LinearLayout.LayoutParams(
             ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.MATCH_PARENT, 0.0f);
 
-    final class IndexAdapter extends BaseAdapter {
+    final class IndexAdapter extends BaseAdapter implements RowPrefetcher.RowWarmer {
 
         private static final float PADDING_DEFAULT_DP = 8;
 
         private static final float PADDING_LARGE_DP = 16;
 
+        // So that convertView is always the same kind of row.
+        private static final int VIEW_TYPE_PAIR_ENTRY = 0;
+        private static final int VIEW_TYPE_TOKEN = 1;
+        private static final int VIEW_TYPE_HTML_ENTRY = 2;
+
+        private static final int MAX_CACHED_SPANS = 512;
+
         final Index index;
 
         final List<RowBase> rows;
@@ -1246,11 +1308,23 @@ public class DictionaryActivity extends SherlockListActivity {
 
         private int mPaddingLarge;
 
+        // Row index -> where its words and highlights are, see
+        // getPairEntrySpans.
+        @SuppressWarnings("serial")
+        private final Map<Integer, PairEntrySpans> rowToSpans = new LinkedHashMap<Integer, PairEntrySpans>(
+                16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Integer, PairEntrySpans> eldest) {
+                return size() > MAX_CACHED_SPANS;
+            }
+        };
+
         IndexAdapter(final Index index) {
             this.index = index;
             rows = index.rows;
             this.toHighlight = null;
             getMetrics();
+            rowPrefetcher.setRows(rows, this);
         }
 
         IndexAdapter(final Index index, final List<RowBase> rows, final List<String> toHighlight) {
@@ -1258,6 +1332,7 @@ public class DictionaryActivity extends SherlockListActivity {
             this.rows = rows;
             this.toHighlight = new LinkedHashSet<String>(toHighlight);
             getMetrics();
+            rowPrefetcher.setRows(rows, this);
         }
 
         private void getMetrics() {
@@ -1283,41 +1358,125 @@ public class DictionaryActivity extends SherlockListActivity {
             return getItem(position).index();
         }
 
+        @Override
+        public int getViewTypeCount() {
+            return 3;
+        }
+
+        @Override
+        public int getItemViewType(int position) {
+            final RowBase row = getItem(position);
+            if (row instanceof PairEntry.Row) {
+                return VIEW_TYPE_PAIR_ENTRY;
+            } else if (row instanceof TokenRow) {
+                return VIEW_TYPE_TOKEN;
+            } else {
+                return VIEW_TYPE_HTML_ENTRY;
+            }
+        }
+
         @Override
         public TableLayout getView(int position, View convertView, ViewGroup parent) {
+            final long startNanos = System.nanoTime();
+            final RowBase row = getItem(position);
             final TableLayout result;
             if (convertView instanceof TableLayout) {
                 result = (TableLayout) convertView;
-                result.removeAllViews();
+                // PairEntry rows reuse their TableRows.
+                if (!(row instanceof PairEntry.Row)) {
+                    result.removeAllViews();
+                }
             } else {
                 result = new TableLayout(parent.getContext());
             }
-            final RowBase row = getItem(position);
+            final TableLayout view;
             if (row instanceof PairEntry.Row) {
-                return getView(position, (PairEntry.Row) row, parent, result);
+                view = getView(position, (PairEntry.Row) row, parent, result);
             } else if (row instanceof TokenRow) {
-                return getView((TokenRow) row, parent, result);
+                view = getView((TokenRow) row, parent, result);
             } else if (row instanceof HtmlEntry.Row) {
-                return getView((HtmlEntry.Row) row, parent, result);
+                view = getView((HtmlEntry.Row) row, parent, result);
             } else {
                 throw new IllegalArgumentException("Unsupported Row type: " + row.getClass());
             }
+            rowPrefetcher.onBind(position, System.nanoTime() - startNanos);
+            return view;
+        }
+
+        @Override
+        public void warm(final RowBase row) {
+            if (row instanceof PairEntry.Row) {
+                getPairEntrySpans((PairEntry.Row) row);
+            }
+        }
+
+        /**
+         * Finds the words (for createTokenLinkSpans) and the text to bold in
+         * each Pair of row's entry, or gets them from the cache. Called both
+         * from the prefetch thread and at bind time.
+         */
+        PairEntrySpans getPairEntrySpans(final PairEntry.Row row) {
+            synchronized (rowToSpans) {
+                final PairEntrySpans spans = rowToSpans.get(row.index());
+                if (spans != null) {
+                    return spans;
+                }
+            }
+            final PairEntry entry = row.getEntry();
+            final Collection<String> toBold = toHighlight != null ? toHighlight : Collections
+                    .singleton(row.getTokenRow(true).getToken());
+            final int rowCount = entry.pairs.size();
+            final PairEntrySpans spans = new PairEntrySpans(rowCount);
+            for (int r = 0; r < rowCount; ++r) {
+                final Pair pair = entry.pairs.get(r);
+                final String col1Text = index.swapPairEntries ? pair.lang2 : pair.lang1;
+                final String col2Text = index.swapPairEntries ? pair.lang1 : pair.lang2;
+                spans.col1Words[r] = findTokenRanges(col1Text);
+                spans.col2Words[r] = findTokenRanges(col2Text);
+                spans.col1Bold[r] = findHighlightRanges(col1Text, toBold);
+            }
+            synchronized (rowToSpans) {
+                rowToSpans.put(row.index(), spans);
+            }
+            return spans;
         }
 
         private TableLayout getView(final int position, PairEntry.Row row, ViewGroup parent,
                 final TableLayout result) {
             final PairEntry entry = row.getEntry();
+            final PairEntrySpans spans = getPairEntrySpans(row);
             final int rowCount = entry.pairs.size();
 
             final TableRow.LayoutParams layoutParams = new TableRow.LayoutParams();
             layoutParams.weight = 0.5f;
             layoutParams.leftMargin = mPaddingLarge;
 
+            // Reuse the TableRows left over from the last PairEntry that was
+            // bound to this view, since row r always has the same layout.
+            if (result.getChildCount() > 0
+                    && !(result.getChildAt(0).getTag() instanceof TextView[])) {
+                result.removeAllViews();
+            }
+            while (result.getChildCount() > rowCount) {
+                result.removeViewAt(result.getChildCount() - 1);
+            }
+
             for (int r = 0; r < rowCount; ++r) {
+                final Pair pair = entry.pairs.get(r);
+                final String col1Text = index.swapPairEntries ? pair.lang2 : pair.lang1;
+                final String col2Text = index.swapPairEntries ? pair.lang1 : pair.lang2;
+
+                if (r < result.getChildCount()) {
+                    final TextView[] cols = (TextView[]) result.getChildAt(r).getTag();
+                    bindPairColumns(cols[0], cols[1], col1Text, col2Text, spans, r);
+                    continue;
+                }
+
                 final TableRow tableRow = new TableRow(result.getContext());
 
                 final TextView col1 = new TextView(tableRow.getContext());
                 final TextView col2 = new TextView(tableRow.getContext());
+                tableRow.setTag(new TextView[] { col1, col2 });
 
                 // Set the columns in the table.
                 if (r > 0) {
@@ -1339,29 +1498,7 @@ public class DictionaryActivity extends SherlockListActivity {
                 col2.setWidth(1);
 
                 // Set what's in the columns.
-
-                final Pair pair = entry.pairs.get(r);
-                final String col1Text = index.swapPairEntries ? pair.lang2 : pair.lang1;
-                final String col2Text = index.swapPairEntries ? pair.lang1 : pair.lang2;
-
-                col1.setText(col1Text, TextView.BufferType.SPANNABLE);
-                col2.setText(col2Text, TextView.BufferType.SPANNABLE);
-
-                // Bold the token instances in col1.
-                final Set<String> toBold = toHighlight != null ? this.toHighlight : Collections
-                        .singleton(row.getTokenRow(true).getToken());
-                final Spannable col1Spannable = (Spannable) col1.getText();
-                for (final String token : toBold) {
-                    int startPos = 0;
-                    while ((startPos = col1Text.indexOf(token, startPos)) != -1) {
-                        col1Spannable.setSpan(new StyleSpan(Typeface.BOLD), startPos, startPos
-                                + token.length(), Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
-                        startPos += token.length();
-                    }
-                }
-
-                createTokenLinkSpans(col1, col1Spannable, col1Text);
-                createTokenLinkSpans(col2, (Spannable) col2.getText(), col2Text);
+                bindPairColumns(col1, col2, col1Text, col2Text, spans, r);
 
                 col1.setTypeface(typeface);
                 col2.setTypeface(typeface);
@@ -1400,9 +1537,28 @@ public class DictionaryActivity extends SherlockListActivity {
             return result;
         }
 
+        private void bindPairColumns(final TextView col1, final TextView col2,
+                final String col1Text, final String col2Text, final PairEntrySpans spans,
+                final int r) {
+            col1.setText(col1Text, TextView.BufferType.SPANNABLE);
+            col2.setText(col2Text, TextView.BufferType.SPANNABLE);
+
+            // Bold the token instances in col1.
+            final Spannable col1Spannable = (Spannable) col1.getText();
+            final int[] col1Bold = spans.col1Bold[r];
+            for (int i = 0; i < col1Bold.length; i += 2) {
+                col1Spannable.setSpan(new StyleSpan(Typeface.BOLD), col1Bold[i], col1Bold[i + 1],
+                        Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
+            }
+
+            createTokenLinkSpans(col1, col1Spannable, spans.col1Words[r]);
+            createTokenLinkSpans(col2, (Spannable) col2.getText(), spans.col2Words[r]);
+        }
+
         private TableLayout getPossibleLinkToHtmlEntryView(final boolean isTokenRow,
                 final String text, final boolean hasMainEntry, final List<HtmlEntry> htmlEntries,
-                final String htmlTextToHighlight, ViewGroup parent, final TableLayout result) {
+                final String token, final int htmlEntryIndex, final String htmlTextToHighlight,
+                ViewGroup parent, final TableLayout result) {
             final Context context = parent.getContext();
 
             final TableRow tableRow = new TableRow(result.getContext());
@@ -1453,11 +1609,9 @@ public class DictionaryActivity extends SherlockListActivity {
                 textView.setOnClickListener(new OnClickListener() {
                     @Override
                     public void onClick(View v) {
-                        String html = HtmlEntry.htmlBody(htmlEntries, index.shortName);
-                        // Log.d(LOG, "html=" + html);
                         startActivityForResult(
-                                HtmlDisplayActivity.getHtmlIntent(String.format(
-                                        "<html><head></head><body>%s</body></html>", html),
+                                HtmlDisplayActivity.getHtmlEntryIntent(dictFile,
+                                        index.shortName, token, htmlEntryIndex,
                                         htmlTextToHighlight, false),
                                 0);
                     }
@@ -1468,8 +1622,11 @@ public class DictionaryActivity extends SherlockListActivity {
 
         private TableLayout getView(TokenRow row, ViewGroup parent, final TableLayout result) {
             final IndexEntry indexEntry = row.getIndexEntry();
-            return getPossibleLinkToHtmlEntryView(true, indexEntry.token, row.hasMainEntry,
-                    indexEntry.htmlEntries, null, parent, result);
+            // Starred if it's in the word list.
+            final String text = wordList.isSaved(index.longName, indexEntry.token) ? indexEntry.token
+                    + " \u2605" : indexEntry.token;
+            return getPossibleLinkToHtmlEntryView(true, text, row.hasMainEntry,
+                    indexEntry.htmlEntries, indexEntry.token, -1, null, parent, result);
         }
 
         private TableLayout getView(HtmlEntry.Row row, ViewGroup parent, final TableLayout result) {
@@ -1477,23 +1634,78 @@ public class DictionaryActivity extends SherlockListActivity {
             final TokenRow tokenRow = row.getTokenRow(true);
             return getPossibleLinkToHtmlEntryView(false,
                     getString(R.string.seeAlso, htmlEntry.title, htmlEntry.entrySource.getName()),
-                    false, Collections.singletonList(htmlEntry), tokenRow.getToken(), parent,
-                    result);
+                    false, Collections.singletonList(htmlEntry), tokenRow.getToken(),
+                    htmlEntry.index(), tokenRow.getToken(), parent, result);
         }
 
     }
 
     static final Pattern CHAR_DASH = Pattern.compile("['\\p{L}\\p{M}\\p{N}]+");
 
+    /**
+     * Span boundaries for one PairEntry: for each Pair, {start, end, start,
+     * end, ...} of its words in each column, and of the text to bold in
+     * col1.
+     */
+    static final class PairEntrySpans {
+        final int[][] col1Words;
+        final int[][] col2Words;
+        final int[][] col1Bold;
+
+        PairEntrySpans(final int numPairs) {
+            col1Words = new int[numPairs][];
+            col2Words = new int[numPairs][];
+            col1Bold = new int[numPairs][];
+        }
+    }
+
+    static int[] findTokenRanges(final String text) {
+        int[] result = new int[8];
+        int size = 0;
+        final Matcher matcher = CHAR_DASH.matcher(text);
+        while (matcher.find()) {
+            if (size == result.length) {
+                result = Arrays.copyOf(result, 2 * size);
+            }
+            result[size++] = matcher.start();
+            result[size++] = matcher.end();
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    static int[] findHighlightRanges(final String text, final Collection<String> tokens) {
+        int[] result = new int[4];
+        int size = 0;
+        for (final String token : tokens) {
+            if (token.length() == 0) {
+                continue;
+            }
+            int startPos = 0;
+            while ((startPos = text.indexOf(token, startPos)) != -1) {
+                if (size == result.length) {
+                    result = Arrays.copyOf(result, 2 * size);
+                }
+                result[size++] = startPos;
+                result[size++] = startPos + token.length();
+                startPos += token.length();
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
     private void createTokenLinkSpans(final TextView textView, final Spannable spannable,
             final String text) {
+        createTokenLinkSpans(textView, spannable, findTokenRanges(text));
+    }
+
+    private void createTokenLinkSpans(final TextView textView, final Spannable spannable,
+            final int[] tokenRanges) {
         // Saw from the source code that LinkMovementMethod sets the selection!
         // http://grepcode.com/file/repository.grepcode.com/java/ext/com.google.android/android/2.3.1_r1/android/text/method/LinkMovementMethod.java#LinkMovementMethod
         textView.setMovementMethod(LinkMovementMethod.getInstance());
-        final Matcher matcher = CHAR_DASH.matcher(text);
-        while (matcher.find()) {
-            spannable.setSpan(new NonLinkClickableSpan(textColorFg), matcher.start(),
-                    matcher.end(),
+        for (int i = 0; i < tokenRanges.length; i += 2) {
+            spannable.setSpan(new NonLinkClickableSpan(textColorFg), tokenRanges[i],
+                    tokenRanges[i + 1],
                     Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
         }
     }
@@ -38,17 +38,22 @@ import com.hughes.android.dictionary.engine.Language;
 import com.hughes.android.dictionary.engine.Language.LanguageResources;
 import com.hughes.android.dictionary.engine.TransliteratorManager;
 import com.hughes.android.util.PersistentObjectCache;
+import com.hughes.android.util.ZipEntryRandomAccessFile;
 import com.hughes.util.ListUtil;
 import com.ibm.icu.text.Collator;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
@@ -77,6 +82,39 @@ public class DictionaryApplication extends Application {
         boolean isValid() {
             return uncompressedFilenameToDictionaryInfo != null && dictionaryFilesOrdered != null;
         }
+
+        static final PersistentObjectCache.Codec<DictionaryConfig> CODEC = new PersistentObjectCache.Codec<DictionaryConfig>() {
+            @Override
+            public void write(final DictionaryConfig config, final DataOutput out)
+                    throws IOException {
+                out.writeInt(config.dictionaryFilesOrdered.size());
+                for (final String uncompressedFilename : config.dictionaryFilesOrdered) {
+                    out.writeUTF(uncompressedFilename);
+                }
+                out.writeInt(config.uncompressedFilenameToDictionaryInfo.size());
+                for (final Map.Entry<String, DictionaryInfo> entry : config.uncompressedFilenameToDictionaryInfo
+                        .entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().write(out);
+                }
+            }
+
+            @Override
+            public DictionaryConfig read(final DataInput in) throws IOException {
+                final DictionaryConfig config = new DictionaryConfig();
+                final int numFiles = in.readInt();
+                for (int i = 0; i < numFiles; ++i) {
+                    config.dictionaryFilesOrdered.add(in.readUTF());
+                }
+                final int numInfos = in.readInt();
+                for (int i = 0; i < numInfos; ++i) {
+                    final String uncompressedFilename = in.readUTF();
+                    config.uncompressedFilenameToDictionaryInfo.put(uncompressedFilename,
+                            new DictionaryInfo(in));
+                }
+                return config;
+            }
+        };
     }
 
     DictionaryConfig dictionaryConfig = null;
@@ -112,21 +150,28 @@ public class DictionaryApplication extends Application {
     public void onCreate() {
         super.onCreate();
         Log.d("QuickDic", "Application: onCreate");
-        TransliteratorManager.init(null);
         staticInit(getApplicationContext());
 
         languageButtonPixels = (int) TypedValue.applyDimension(
                 TypedValue.COMPLEX_UNIT_DIP, 60, getResources().getDisplayMetrics());
 
         // Load the dictionaries we know about.
-        dictionaryConfig = PersistentObjectCache.init(getApplicationContext()).read(
-                C.DICTIONARY_CONFIGS, DictionaryConfig.class);
+        final PersistentObjectCache persistentObjectCache = PersistentObjectCache
+                .init(getApplicationContext());
+        dictionaryConfig = persistentObjectCache.read(C.DICTIONARY_CONFIG,
+                DictionaryConfig.CODEC);
+        if (dictionaryConfig == null) {
+            // From before DICTIONARY_CONFIG; it'll be written there next time.
+            dictionaryConfig = persistentObjectCache.read(C.DICTIONARY_CONFIGS,
+                    DictionaryConfig.class);
+        }
         if (dictionaryConfig == null) {
             dictionaryConfig = new DictionaryConfig();
         }
         if (!dictionaryConfig.isValid()) {
             dictionaryConfig = new DictionaryConfig();
         }
+        warmUpDictionaries();
 
         // Theme stuff.
         setTheme(getSelectedTheme().themeId);
@@ -223,8 +268,20 @@ public class DictionaryApplication extends Application {
         }
     }
 
+    /**
+     * Where the dictionary is: either the .quickdic itself, or a zip that
+     * has it as a stored entry (see ZipEntryRandomAccessFile).
+     */
     public File getPath(String uncompressedFilename) {
-        return new File(getDictDir(), uncompressedFilename);
+        final File file = new File(getDictDir(), uncompressedFilename);
+        if (!file.exists()) {
+            final File zipFile = new File(getDictDir(), uncompressedFilename
+                    + ZipEntryRandomAccessFile.ZIP_SUFFIX);
+            if (zipFile.exists()) {
+                return zipFile;
+            }
+        }
+        return file;
     }
 
     String defaultLangISO2 = Locale.getDefault().getLanguage().toLowerCase();
@@ -312,7 +369,36 @@ public class DictionaryApplication extends Application {
     public synchronized void moveDictionaryToTop(final DictionaryInfo dictionaryInfo) {
         dictionaryConfig.dictionaryFilesOrdered.remove(dictionaryInfo.uncompressedFilename);
         dictionaryConfig.dictionaryFilesOrdered.add(0, dictionaryInfo.uncompressedFilename);
-        PersistentObjectCache.getInstance().write(C.DICTIONARY_CONFIGS, dictionaryConfig);
+        PersistentObjectCache.getInstance().write(C.DICTIONARY_CONFIG, dictionaryConfig,
+                DictionaryConfig.CODEC);
+        warmUpDictionaries();
+    }
+
+    /**
+     * Gets the normalizers and collators of the dictionaries the user is
+     * most likely to open next compiled in the background.
+     */
+    synchronized void warmUpDictionaries() {
+        final List<File> dictionaryFiles = new ArrayList<File>();
+        for (final String uncompressedFilename : dictionaryConfig.dictionaryFilesOrdered) {
+            dictionaryFiles.add(getPath(uncompressedFilename));
+        }
+        TransliteratorManager.warmUpDictionaries(dictionaryFiles);
+    }
+
+    /**
+     * Adds (or replaces) a single dictionary in the config, e.g. once it's
+     * been installed, without rescanning the others.
+     */
+    public synchronized void addDictionaryInfo(final DictionaryInfo dictionaryInfo) {
+        if (!dictionaryConfig.dictionaryFilesOrdered.contains(dictionaryInfo.uncompressedFilename)) {
+            dictionaryConfig.dictionaryFilesOrdered.add(dictionaryInfo.uncompressedFilename);
+        }
+        dictionaryConfig.uncompressedFilenameToDictionaryInfo.put(
+                dictionaryInfo.uncompressedFilename, dictionaryInfo);
+        PersistentObjectCache.getInstance().write(C.DICTIONARY_CONFIG, dictionaryConfig,
+                DictionaryConfig.CODEC);
+        warmUpDictionaries();
     }
 
     public synchronized void deleteDictionary(final DictionaryInfo dictionaryInfo) {
@@ -321,8 +407,88 @@ public class DictionaryApplication extends Application {
         ;
         dictionaryConfig.uncompressedFilenameToDictionaryInfo
                 .remove(dictionaryInfo.uncompressedFilename);
-        getPath(dictionaryInfo.uncompressedFilename).delete();
-        PersistentObjectCache.getInstance().write(C.DICTIONARY_CONFIGS, dictionaryConfig);
+        // Both forms, in case an install left the other one behind.
+        new File(getDictDir(), dictionaryInfo.uncompressedFilename).delete();
+        new File(getDictDir(), dictionaryInfo.uncompressedFilename
+                + ZipEntryRandomAccessFile.ZIP_SUFFIX).delete();
+        PersistentObjectCache.getInstance().write(C.DICTIONARY_CONFIG, dictionaryConfig,
+                DictionaryConfig.CODEC);
+    }
+
+    /**
+     * A Dictionary opened through openDictionary, shared by everyone who has
+     * it open, and closed once the last of them has released it.
+     */
+    static final class OpenDictionary {
+        final File file;
+        final RandomAccessFile raf;
+        final Dictionary dictionary;
+        // Of the file when it was opened, so a replaced file isn't shared.
+        private final long length;
+        private final long lastModified;
+        // Guarded by openDictionaries.
+        private int numUsers = 0;
+
+        private OpenDictionary(final File file) throws IOException {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.raf = ZipEntryRandomAccessFile.open(file);
+            try {
+                this.dictionary = new Dictionary(raf);
+            } catch (IOException e) {
+                raf.close();
+                throw e;
+            } catch (RuntimeException e) {
+                raf.close();
+                throw e;
+            }
+        }
+
+        private boolean isCurrent() {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+
+    // By absolute path.
+    private final Map<String, OpenDictionary> openDictionaries =
+            new HashMap<String, OpenDictionary>();
+
+    /**
+     * Opens file's Dictionary, or shares the one that's already open, so
+     * e.g. showing an HtmlEntry doesn't read the dictionary's header and
+     * indices again. Each call needs a releaseDictionary.
+     */
+    OpenDictionary openDictionary(final File file) throws IOException {
+        final String key = file.getAbsolutePath();
+        synchronized (openDictionaries) {
+            OpenDictionary openDictionary = openDictionaries.get(key);
+            if (openDictionary == null || !openDictionary.isCurrent()) {
+                // A replaced one stays open for those still using it.
+                openDictionary = new OpenDictionary(file);
+                openDictionaries.put(key, openDictionary);
+            }
+            ++openDictionary.numUsers;
+            return openDictionary;
+        }
+    }
+
+    void releaseDictionary(final OpenDictionary openDictionary) {
+        synchronized (openDictionaries) {
+            if (--openDictionary.numUsers > 0) {
+                return;
+            }
+            final String key = openDictionary.file.getAbsolutePath();
+            if (openDictionaries.get(key) == openDictionary) {
+                openDictionaries.remove(key);
+            }
+        }
+        try {
+            Log.d(LOG, "Closing " + openDictionary.file);
+            openDictionary.raf.close();
+        } catch (IOException e) {
+            Log.e(LOG, "Failed to close dictionary", e);
+        }
     }
 
     final Collator collator = Collator.getInstance();
@@ -382,29 +548,39 @@ public class DictionaryApplication extends Application {
                 final File[] dictDirFiles = getDictDir().listFiles();
                 if (dictDirFiles != null) {
                     for (final File file : dictDirFiles) {
-                        if (file.getName().endsWith(".zip")) {
+                        final String uncompressedFilename = ZipEntryRandomAccessFile
+                                .unzippedName(file);
+                        final boolean isZip = !uncompressedFilename.equals(file.getName());
+                        if (isZip && new File(getDictDir(), uncompressedFilename).exists()) {
+                            // Left over from an old install that unzipped it.
                             if (DOWNLOADABLE_UNCOMPRESSED_FILENAME_NAME_TO_DICTIONARY_INFO
-                                    .containsKey(file.getName().replace(".zip", ""))) {
+                                    .containsKey(uncompressedFilename)) {
                                 file.delete();
                             }
+                            continue;
                         }
-                        if (!file.getName().endsWith(".quickdic")) {
+                        if (!uncompressedFilename.endsWith(".quickdic")) {
                             continue;
                         }
                         if (newDictionaryConfig.uncompressedFilenameToDictionaryInfo
-                                .containsKey(file.getName())) {
+                                .containsKey(uncompressedFilename)) {
                             // We have it in our list already.
                             continue;
                         }
                         final DictionaryInfo dictionaryInfo = Dictionary.getDictionaryInfo(file);
                         if (dictionaryInfo == null) {
                             Log.e(LOG, "Unable to parse dictionary: " + file.getPath());
+                            if (isZip && DOWNLOADABLE_UNCOMPRESSED_FILENAME_NAME_TO_DICTIONARY_INFO
+                                    .containsKey(uncompressedFilename)) {
+                                // Not a stored zip, so not one of ours.
+                                file.delete();
+                            }
                             continue;
                         }
 
-                        toAddSorted.add(file.getName());
+                        toAddSorted.add(uncompressedFilename);
                         newDictionaryConfig.uncompressedFilenameToDictionaryInfo.put(
-                                file.getName(), dictionaryInfo);
+                                uncompressedFilename, dictionaryInfo);
                     }
                 } else {
                     Log.w(LOG, "dictDir is not a diretory: " + getDictDir().getPath());
@@ -414,11 +590,12 @@ public class DictionaryApplication extends Application {
                     newDictionaryConfig.dictionaryFilesOrdered.addAll(toAddSorted);
                 }
 
-                PersistentObjectCache.getInstance()
-                        .write(C.DICTIONARY_CONFIGS, newDictionaryConfig);
+                PersistentObjectCache.getInstance().write(C.DICTIONARY_CONFIG,
+                        newDictionaryConfig, DictionaryConfig.CODEC);
                 synchronized (this) {
                     dictionaryConfig = newDictionaryConfig;
                 }
+                warmUpDictionaries();
 
                 try {
                     onUpdateFinished.run();
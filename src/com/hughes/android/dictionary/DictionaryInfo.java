@@ -14,6 +14,9 @@
 
 package com.hughes.android.dictionary;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -49,6 +52,18 @@ public class DictionaryInfo implements Serializable {
             allTokenCount = Integer.parseInt(fields[i++]);
             mainTokenCount = Integer.parseInt(fields[i++]);
         }
+
+        public void write(final DataOutput out) throws IOException {
+            out.writeUTF(shortName);
+            out.writeInt(allTokenCount);
+            out.writeInt(mainTokenCount);
+        }
+
+        public IndexInfo(final DataInput in) throws IOException {
+            shortName = in.readUTF();
+            allTokenCount = in.readInt();
+            mainTokenCount = in.readInt();
+        }
     }
 
     // Stuff populated from the text file.
@@ -94,6 +109,54 @@ public class DictionaryInfo implements Serializable {
         dictInfo = fields[i++].replaceAll("\\\\n", "\n");
     }
 
+    public void write(final DataOutput out) throws IOException {
+        writeNullableString(out, uncompressedFilename);
+        writeNullableString(out, downloadUrl);
+        out.writeLong(uncompressedBytes);
+        out.writeLong(zipBytes);
+        out.writeLong(creationMillis);
+        out.writeInt(indexInfos.size());
+        for (final IndexInfo indexInfo : indexInfos) {
+            indexInfo.write(out);
+        }
+        writeNullableString(out, dictInfo);
+    }
+
+    public DictionaryInfo(final DataInput in) throws IOException {
+        uncompressedFilename = readNullableString(in);
+        downloadUrl = readNullableString(in);
+        uncompressedBytes = in.readLong();
+        zipBytes = in.readLong();
+        creationMillis = in.readLong();
+        final int size = in.readInt();
+        for (int i = 0; i < size; ++i) {
+            indexInfos.add(new IndexInfo(in));
+        }
+        dictInfo = readNullableString(in);
+    }
+
+    // Not writeUTF, since dictInfo can be long.
+    private static void writeNullableString(final DataOutput out, final String s)
+            throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readNullableString(final DataInput in) throws IOException {
+        final int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
     @Override
     public String toString() {
         return uncompressedFilename;
@@ -0,0 +1,342 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary;
+
+import android.util.Log;
+
+import com.hughes.android.dictionary.engine.Dictionary;
+import com.hughes.android.util.FileDelta;
+import com.hughes.android.util.ZipEntryRandomAccessFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Installs downloaded dictionary zips, one at a time, on a worker thread, and
+ * adds just that dictionary to the DictionaryConfig.
+ * <p>
+ * A zip whose dictionary is STORED is just moved into place and read from
+ * there (see ZipEntryRandomAccessFile). Otherwise it's unzipped into a temp
+ * file while checking the CRC, synced, and renamed into place.
+ * <p>
+ * A .delta (see FileDelta) is applied to the installed version of the
+ * dictionary it names, into a temp file that's renamed into place the same
+ * way once its checksum has been verified.
+ */
+final class DictionaryInstaller {
+
+    static final String LOG = "QuickDic";
+
+    private static final int BUFFER_BYTES = 256 * 1024;
+
+    interface Callback {
+        /** Called on the installer thread. */
+        void onInstallFinished(DictionaryInfo dictionaryInfo);
+
+        /** Called on the installer thread. */
+        void onInstallFailed(Exception e);
+    }
+
+    private static final Executor installExecutor = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "installExecutor");
+                }
+            });
+
+    private DictionaryInstaller() {
+    }
+
+    /**
+     * Installs the first entry of zipFile (or applies it, if it's a delta),
+     * and deletes zipFile when done (whether or not that worked).
+     */
+    static void install(final DictionaryApplication application, final File zipFile,
+            final Callback callback) {
+        installExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final DictionaryInfo dictionaryInfo;
+                try {
+                    if (zipFile.getName().endsWith(FileDelta.DELTA_SUFFIX)) {
+                        dictionaryInfo = installDelta(application, zipFile);
+                    } else {
+                        dictionaryInfo = installNow(application, zipFile);
+                    }
+                } catch (Exception e) {
+                    Log.e(LOG, "Failed to install: " + zipFile, e);
+                    callback.onInstallFailed(e);
+                    return;
+                } finally {
+                    zipFile.delete();
+                }
+                callback.onInstallFinished(dictionaryInfo);
+            }
+        });
+    }
+
+    private static DictionaryInfo installNow(final DictionaryApplication application,
+            final File zipFile) throws IOException {
+        final long startMillis = System.currentTimeMillis();
+        final ZipFile zip = new ZipFile(zipFile);
+        final File targetFile;
+        final File tempFile;
+        try {
+            final ZipEntry zipEntry = zip.entries().nextElement();
+            checkDictionaryName(zipEntry.getName());
+            targetFile = new File(application.getDictDir(), zipEntry.getName());
+            if (zipEntry.getMethod() == ZipEntry.STORED) {
+                final DictionaryInfo dictionaryInfo = installStored(application, zipFile,
+                        zipEntry, targetFile);
+                if (dictionaryInfo != null) {
+                    Log.d(LOG, "Installed " + targetFile.getName() + " without unzipping in "
+                            + (System.currentTimeMillis() - startMillis) + "ms");
+                    return dictionaryInfo;
+                }
+            }
+            Log.d(LOG, "Unzipping entry: " + zipEntry.getName());
+            tempFile = new File(application.getDictDir(), zipEntry.getName() + ".tmp");
+            unzipVerified(zip, zipEntry, tempFile);
+        } finally {
+            zip.close();
+        }
+        return moveIntoPlace(application, tempFile, targetFile, startMillis);
+    }
+
+    /**
+     * Applies deltaFile to the installed dictionary it's for, which may be
+     * read in place from a zip, and installs the result unzipped.
+     */
+    private static DictionaryInfo installDelta(final DictionaryApplication application,
+            final File deltaFile) throws IOException {
+        final long startMillis = System.currentTimeMillis();
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(deltaFile), BUFFER_BYTES));
+        final File sourceFile;
+        final File targetFile;
+        final File tempFile;
+        try {
+            final FileDelta.Header header = FileDelta.readHeader(in);
+            checkDictionaryName(header.name);
+            sourceFile = application.getPath(header.name);
+            if (!sourceFile.exists()) {
+                throw new IOException("No dictionary to apply delta to: " + header.name);
+            }
+            Log.d(LOG, "Applying delta to: " + sourceFile.getName());
+            targetFile = new File(application.getDictDir(), header.name);
+            tempFile = new File(application.getDictDir(), header.name + ".tmp");
+            final RandomAccessFile source = ZipEntryRandomAccessFile.open(sourceFile);
+            final FileOutputStream fileOut = new FileOutputStream(tempFile);
+            boolean ok = false;
+            try {
+                final BufferedOutputStream out = new BufferedOutputStream(fileOut, BUFFER_BYTES);
+                FileDelta.apply(header, source, in, out);
+                out.flush();
+                fileOut.getFD().sync();
+                ok = true;
+            } finally {
+                source.close();
+                fileOut.close();
+                if (!ok) {
+                    tempFile.delete();
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        // Which also deletes sourceFile if it was the zipped one.
+        return moveIntoPlace(application, tempFile, targetFile, startMillis);
+    }
+
+    /**
+     * Makes sure name (which comes from a downloaded file) is just a
+     * filename, so it can't point outside the dictionary directory.
+     */
+    private static void checkDictionaryName(final String name) throws IOException {
+        if (name.length() == 0 || name.indexOf('/') != -1 || name.indexOf('\\') != -1
+                || name.contains("..")) {
+            throw new IOException("Bad dictionary name: " + name);
+        }
+    }
+
+    /**
+     * Renames tempFile, a complete, synced dictionary, to targetFile, backing
+     * up any existing one (and putting it back if the rename fails), deletes
+     * any zipped one, and adds it to the config.
+     */
+    private static DictionaryInfo moveIntoPlace(final DictionaryApplication application,
+            final File tempFile, final File targetFile, final long startMillis)
+            throws IOException {
+        // Only what's needed for the config, so no need to read the entries.
+        final DictionaryInfo dictionaryInfo = Dictionary.getDictionaryInfo(tempFile);
+        if (dictionaryInfo == null) {
+            tempFile.delete();
+            throw new IOException("Unable to parse dictionary: " + targetFile.getName());
+        }
+        dictionaryInfo.uncompressedFilename = targetFile.getName();
+
+        final File backupFile = backupFile(targetFile);
+        final boolean backedUp = targetFile.exists() && targetFile.renameTo(backupFile);
+        if (!tempFile.renameTo(targetFile)) {
+            tempFile.delete();
+            if (backedUp && !targetFile.exists()) {
+                backupFile.renameTo(targetFile);
+            }
+            throw new IOException("Unable to rename " + tempFile + " to " + targetFile);
+        }
+        // A zipped copy from an earlier install would only take up space now
+        // (getPath prefers the unzipped one).
+        final File zipFile = new File(targetFile.getPath() + ZipEntryRandomAccessFile.ZIP_SUFFIX);
+        if (zipFile.exists() && !zipFile.delete()) {
+            Log.w(LOG, "Unable to delete " + zipFile);
+        }
+        application.addDictionaryInfo(dictionaryInfo);
+        Log.d(LOG, "Installed " + targetFile.getName() + " ("
+                + dictionaryInfo.uncompressedBytes + " bytes) in "
+                + (System.currentTimeMillis() - startMillis) + "ms");
+        return dictionaryInfo;
+    }
+
+    private static File backupFile(final File targetFile) {
+        return new File(targetFile.getAbsolutePath().replace(".quickdic", ".bak.quickdic"));
+    }
+
+    /**
+     * Moves zipFile to targetFile's name plus .zip, where getPath will find
+     * it, once its entry's size and CRC check out.
+     *
+     * @return null if it couldn't be moved (e.g. it's on another file
+     *         system), in which case it has to be unzipped after all.
+     */
+    private static DictionaryInfo installStored(final DictionaryApplication application,
+            final File zipFile, final ZipEntry zipEntry, final File targetFile)
+            throws IOException {
+        verifyStored(zipFile, zipEntry);
+        final DictionaryInfo dictionaryInfo = Dictionary.getDictionaryInfo(zipFile);
+        if (dictionaryInfo == null) {
+            throw new IOException("Unable to parse dictionary: " + targetFile.getName());
+        }
+        dictionaryInfo.uncompressedFilename = targetFile.getName();
+
+        final File targetZipFile = new File(targetFile.getPath()
+                + ZipEntryRandomAccessFile.ZIP_SUFFIX);
+        // Move the unzipped one out of the way, since getPath prefers it.
+        final File backupFile = backupFile(targetFile);
+        if (targetFile.exists()) {
+            targetFile.renameTo(backupFile);
+        }
+        if (!zipFile.renameTo(targetZipFile)) {
+            Log.w(LOG, "Unable to move " + zipFile + " to " + targetZipFile);
+            if (backupFile.exists() && !targetFile.exists()) {
+                backupFile.renameTo(targetFile);
+            }
+            return null;
+        }
+        application.addDictionaryInfo(dictionaryInfo);
+        return dictionaryInfo;
+    }
+
+    /**
+     * Checks the size and CRC of a STORED zipEntry's data, in one sequential
+     * read, since it's going to be used as is.
+     */
+    private static void verifyStored(final File zipFile, final ZipEntry zipEntry)
+            throws IOException {
+        final CRC32 crc = new CRC32();
+        long numBytes = 0;
+        final byte[] buffer = new byte[BUFFER_BYTES];
+        final RandomAccessFile raf = new ZipEntryRandomAccessFile(zipFile, zipEntry.getName());
+        try {
+            int read;
+            while ((read = raf.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                numBytes += read;
+            }
+        } finally {
+            raf.close();
+        }
+        if (zipEntry.getSize() != -1 && numBytes != zipEntry.getSize()) {
+            throw new IOException("Wrong size for " + zipEntry.getName() + ": " + numBytes
+                    + " != " + zipEntry.getSize());
+        }
+        if (zipEntry.getCrc() != -1 && crc.getValue() != zipEntry.getCrc()) {
+            throw new IOException("Bad CRC for " + zipEntry.getName());
+        }
+    }
+
+    /**
+     * Copies zipEntry to destFile through one big buffer, checking the size
+     * and CRC on the way and syncing the file before returning.
+     */
+    private static void unzipVerified(final ZipFile zip, final ZipEntry zipEntry,
+            final File destFile) throws IOException {
+        final CRC32 crc = new CRC32();
+        long numBytes = 0;
+        // Heap, not direct, since CRC32 needs an array (before API 26).
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        final InputStream zipIn = zip.getInputStream(zipEntry);
+        final FileOutputStream fileOut = new FileOutputStream(destFile);
+        boolean ok = false;
+        try {
+            final ReadableByteChannel in = Channels.newChannel(zipIn);
+            final FileChannel out = fileOut.getChannel();
+            while (in.read(buffer) != -1 || buffer.position() > 0) {
+                buffer.flip();
+                crc.update(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                        buffer.remaining());
+                numBytes += buffer.remaining();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+            if (zipEntry.getSize() != -1 && numBytes != zipEntry.getSize()) {
+                throw new IOException("Wrong size for " + zipEntry.getName() + ": " + numBytes
+                        + " != " + zipEntry.getSize());
+            }
+            if (zipEntry.getCrc() != -1 && crc.getValue() != zipEntry.getCrc()) {
+                throw new IOException("Bad CRC for " + zipEntry.getName());
+            }
+            out.force(true);
+            ok = true;
+        } finally {
+            zipIn.close();
+            fileOut.close();
+            if (!ok) {
+                destFile.delete();
+            }
+        }
+    }
+
+}
@@ -58,16 +58,10 @@ import com.hughes.android.dictionary.DictionaryInfo.IndexInfo;
 import com.hughes.android.util.IntentLauncher;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collections;
 import java.util.List;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 // Right-click:
 //  Delete, move to top.
@@ -141,29 +135,33 @@ public class DictionaryManagerActivity extends SherlockListActivity {
                 
                 
                 final File localZipFile = new File(Uri.parse(dest).getPath());
-                try {
-                    ZipFile zipFile = new ZipFile(localZipFile);
-                    final ZipEntry zipEntry = zipFile.entries().nextElement();
-                    Log.d(LOG, "Unzipping entry: " + zipEntry.getName());
-                    final InputStream zipIn = zipFile.getInputStream(zipEntry);
-                    File targetFile = new File(application.getDictDir(), zipEntry.getName());
-                    if (targetFile.exists()) {
-                        targetFile.renameTo(new File(targetFile.getAbsolutePath().replace(".quickdic", ".bak.quickdic")));
-                        targetFile = new File(application.getDictDir(), zipEntry.getName());
-                    }
-                    final OutputStream zipOut = new FileOutputStream(targetFile);
-                    copyStream(zipIn, zipOut);
-                    zipFile.close();
-                    application.backgroundUpdateDictionaries(dictionaryUpdater);
-                    Toast.makeText(context, getString(R.string.installationFinished, dest),
-                            Toast.LENGTH_LONG).show();
-                } catch (Exception e) {
-                    Toast.makeText(context, getString(R.string.unzippingFailed, dest),
-                            Toast.LENGTH_LONG).show();
-                    Log.e(LOG, "Failed to unzip.", e);
-                } finally {
-                    localZipFile.delete();
-                }
+                // We're on the UI thread here, which is where the Toasts go.
+                final Handler handler = new Handler();
+                final Context appContext = context.getApplicationContext();
+                DictionaryInstaller.install(application, localZipFile,
+                        new DictionaryInstaller.Callback() {
+                            @Override
+                            public void onInstallFinished(DictionaryInfo dictionaryInfo) {
+                                dictionaryUpdater.run();
+                                showToast(R.string.installationFinished);
+                            }
+
+                            @Override
+                            public void onInstallFailed(Exception e) {
+                                showToast(R.string.unzippingFailed);
+                            }
+
+                            private void showToast(final int messageId) {
+                                handler.post(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        Toast.makeText(appContext,
+                                                appContext.getString(messageId, dest),
+                                                Toast.LENGTH_LONG).show();
+                                    }
+                                });
+                            }
+                        });
             }
         }
     };
@@ -290,18 +288,6 @@ public class DictionaryManagerActivity extends SherlockListActivity {
         unregisterReceiver(broadcastReceiver);
     }
 
-    private static int copyStream(final InputStream in, final OutputStream out)
-            throws IOException {
-        int bytesRead;
-        final byte[] bytes = new byte[1024 * 16];
-        while ((bytesRead = in.read(bytes)) != -1) {
-            out.write(bytes, 0, bytesRead);
-        }
-        in.close();
-        out.close();
-        return bytesRead;
-    }
-
     @Override
     protected void onStart() {
         super.onStart();
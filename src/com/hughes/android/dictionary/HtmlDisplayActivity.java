@@ -15,6 +15,7 @@
 package com.hughes.android.dictionary;
 
 import android.content.Intent;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
@@ -23,17 +24,39 @@ import android.widget.Button;
 
 import com.actionbarsherlock.app.ActionBar;
 import com.actionbarsherlock.app.SherlockActivity;
+import com.hughes.android.dictionary.engine.Dictionary;
+import com.hughes.android.dictionary.engine.HtmlEntry;
+import com.hughes.android.dictionary.engine.Index;
+import com.hughes.android.dictionary.engine.Index.IndexEntry;
 import com.hughes.util.StringUtil;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public final class HtmlDisplayActivity extends SherlockActivity {
 
     static final String LOG = "QuickDic";
 
     static final String HTML_RES = "html_res";
-    static final String HTML = "html";
+    static final String HTML_ENTRY_INDEX = "htmlEntryIndex";
     static final String TEXT_TO_HIGHLIGHT = "textToHighlight";
     static final String SHOW_OK_BUTTON = "showOKButton";
 
+    // Loaded by the WebView, which gets the content from openHtmlStream.
+    static final String HTML_STREAM_URL = "qhtml://entries";
+
+    // Opened (or, usually, shared with the DictionaryActivity showing it) by
+    // the first openHtmlStream, released by onDestroy. Guarded by this.
+    private DictionaryApplication.OpenDictionary openDictionary = null;
+    private boolean destroyed = false;
+
     public static Intent getHelpLaunchIntent() {
         final Intent intent = new Intent();
         intent.setClassName(HtmlDisplayActivity.class.getPackage().getName(),
@@ -50,12 +73,21 @@ public final class HtmlDisplayActivity extends SherlockActivity {
         return intent;
     }
 
-    public static Intent getHtmlIntent(final String html, final String textToHighlight,
+    /**
+     * Shows the HtmlEntries of token in the given index, or only the one at
+     * htmlEntryIndex in the dictionary if that isn't -1. The HTML itself is
+     * read from the dictionary file, it doesn't go through the Intent.
+     */
+    public static Intent getHtmlEntryIntent(final File dictFile, final String indexShortName,
+            final String token, final int htmlEntryIndex, final String textToHighlight,
             final boolean showOkButton) {
         final Intent intent = new Intent();
         intent.setClassName(HtmlDisplayActivity.class.getPackage().getName(),
                 HtmlDisplayActivity.class.getName());
-        intent.putExtra(HTML, html);
+        intent.putExtra(C.DICT_FILE, dictFile.getPath());
+        intent.putExtra(C.INDEX_SHORT_NAME, indexShortName);
+        intent.putExtra(C.SEARCH_TOKEN, token);
+        intent.putExtra(HTML_ENTRY_INDEX, htmlEntryIndex);
         intent.putExtra(TEXT_TO_HIGHLIGHT, textToHighlight);
         intent.putExtra(SHOW_OK_BUTTON, showOkButton);
         return intent;
@@ -72,16 +104,25 @@ public final class HtmlDisplayActivity extends SherlockActivity {
         ActionBar actionBar = getSupportActionBar();
         actionBar.setDisplayHomeAsUpEnabled(true);
 
+        final MyWebView webView = (MyWebView) findViewById(R.id.webView);
+        webView.activity = this;
         final int htmlRes = getIntent().getIntExtra(HTML_RES, -1);
-        final String html;
         if (htmlRes != -1) {
-            html = StringUtil.readToString(getResources().openRawResource(htmlRes));
+            final String html = StringUtil.readToString(getResources().openRawResource(htmlRes));
+            webView.loadData(html, "text/html", "utf-8");
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            webView.loadUrl(HTML_STREAM_URL);
         } else {
-            html = getIntent().getStringExtra(HTML);
+            // No shouldInterceptRequest before Honeycomb.
+            String html;
+            try {
+                html = StringUtil.readToString(openHtmlStream());
+            } catch (IOException e) {
+                Log.e(LOG, "Unable to read html", e);
+                html = "";
+            }
+            webView.loadData(html, "text/html", "utf-8");
         }
-        final MyWebView webView = (MyWebView) findViewById(R.id.webView);
-        webView.loadData(html, "text/html", "utf-8");
-        webView.activity = this;
 
         final String textToHighlight = getIntent().getStringExtra(TEXT_TO_HIGHLIGHT);
         if (textToHighlight != null && !"".equals(textToHighlight)) {
@@ -103,4 +144,105 @@ public final class HtmlDisplayActivity extends SherlockActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        synchronized (this) {
+            // Any stream the WebView is still reading hits EOF from now on.
+            destroyed = true;
+            if (openDictionary != null) {
+                ((DictionaryApplication) getApplication()).releaseDictionary(openDictionary);
+                openDictionary = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the dictionary from the Intent and streams the page for its
+     * HtmlEntries, one entry at a time. Called from the WebView's loading
+     * thread, not the UI thread.
+     */
+    synchronized InputStream openHtmlStream() throws IOException {
+        final Intent intent = getIntent();
+        final String dictFilename = intent.getStringExtra(C.DICT_FILE);
+        if (dictFilename == null) {
+            throw new IOException("No dictionary to show.");
+        }
+        if (destroyed) {
+            throw new IOException("Activity destroyed.");
+        }
+        if (openDictionary == null) {
+            openDictionary = ((DictionaryApplication) getApplication()).openDictionary(
+                    new File(dictFilename));
+        }
+        final Dictionary dictionary = openDictionary.dictionary;
+
+        final String indexShortName = intent.getStringExtra(C.INDEX_SHORT_NAME);
+        Index index = dictionary.indices.get(0);
+        for (final Index candidate : dictionary.indices) {
+            if (candidate.shortName.equals(indexShortName)) {
+                index = candidate;
+                break;
+            }
+        }
+
+        final List<HtmlEntry> htmlEntries;
+        final int htmlEntryIndex = intent.getIntExtra(HTML_ENTRY_INDEX, -1);
+        if (htmlEntryIndex != -1) {
+            htmlEntries = Collections.singletonList(dictionary.htmlEntries.get(htmlEntryIndex));
+        } else {
+            final IndexEntry indexEntry = index.findExact(intent.getStringExtra(C.SEARCH_TOKEN));
+            htmlEntries = indexEntry != null ? indexEntry.htmlEntries
+                    : Collections.<HtmlEntry> emptyList();
+        }
+        Log.d(LOG, "Streaming " + htmlEntries.size() + " HtmlEntries from " + dictFilename);
+
+        final List<InputStream> parts = Arrays.asList(
+                new ByteArrayInputStream("<html><head></head><body>".getBytes("UTF-8")),
+                HtmlEntry.htmlBodyStream(htmlEntries, index.shortName),
+                new ByteArrayInputStream("</body></html>".getBytes("UTF-8")));
+        return new DestroyGuardedInputStream(new SequenceInputStream(
+                Collections.enumeration(parts)));
+    }
+
+    /**
+     * Reads under the activity's lock, so onDestroy can't close the file in
+     * the middle of a read, and gives EOF once it has, rather than failing on
+     * the WebView's thread.
+     */
+    private final class DestroyGuardedInputStream extends FilterInputStream {
+
+        DestroyGuardedInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            synchronized (HtmlDisplayActivity.this) {
+                return destroyed ? -1 : super.read();
+            }
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            synchronized (HtmlDisplayActivity.this) {
+                return destroyed ? -1 : super.read(b, off, len);
+            }
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            synchronized (HtmlDisplayActivity.this) {
+                return destroyed ? 0 : super.skip(n);
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (HtmlDisplayActivity.this) {
+                return destroyed ? 0 : super.available();
+            }
+        }
+    }
+
 }
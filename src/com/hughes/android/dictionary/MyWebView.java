@@ -1,17 +1,21 @@
 
 package com.hughes.android.dictionary;
 
+import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.ContextMenu;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
 import com.hughes.android.dictionary.engine.HtmlEntry;
 
+import java.io.IOException;
+
 public class MyWebView extends WebView {
 
     static final String LOG = "MyWebView";
@@ -41,6 +45,21 @@ public class MyWebView extends WebView {
                 }
                 return super.shouldOverrideUrlLoading(view, url);
             }
+
+            // Only ever called on API 11+.
+            @SuppressLint("NewApi")
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view, String url) {
+                if (HtmlDisplayActivity.HTML_STREAM_URL.equals(url) && activity != null) {
+                    try {
+                        return new WebResourceResponse("text/html", "UTF-8",
+                                activity.openHtmlStream());
+                    } catch (IOException e) {
+                        Log.e(LOG, "Unable to stream html", e);
+                    }
+                }
+                return super.shouldInterceptRequest(view, url);
+            }
         };
         setWebViewClient(webViewClient);
     }
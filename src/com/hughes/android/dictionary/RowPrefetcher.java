@@ -0,0 +1,222 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary;
+
+import android.util.Log;
+import android.widget.AbsListView;
+
+import com.hughes.android.dictionary.engine.HtmlEntry;
+import com.hughes.android.dictionary.engine.PairEntry;
+import com.hughes.android.dictionary.engine.RowBase;
+import com.hughes.android.dictionary.engine.TextEntry;
+import com.hughes.android.dictionary.engine.TokenRow;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Watches the list scroll and, on a background thread, reads the rows just
+ * ahead of the visible ones (in the direction of the scroll), along with
+ * their entries and token rows, so that by the time they're bound they're
+ * already in the CachingLists. A RowWarmer can do more work per row while
+ * it's at it.
+ */
+final class RowPrefetcher implements AbsListView.OnScrollListener {
+
+    static final String LOG = "QuickDic";
+
+    // How many rows past the visible ones to read.
+    private static final int PREFETCH_ROWS = 40;
+    // How many of the latest prefetched windows count as "warm".
+    private static final int NUM_WINDOWS = 4;
+    private static final int LOG_EVERY_BINDS = 200;
+    // A prefetch stops within a row of being told to, so this is plenty.
+    private static final long SHUTDOWN_WAIT_MILLIS = 500;
+
+    private final ExecutorService prefetchExecutor = Executors
+            .newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "prefetchExecutor");
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+
+    // Bumped for every new window, so that stale ones stop early.
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private List<RowBase> rows = null;
+    private RowWarmer rowWarmer = null;
+    private int lastFirstVisibleItem = -1;
+
+    // Ring of [from, to) windows that have been fully read.
+    private final int[] windowFrom = new int[NUM_WINDOWS];
+    private final int[] windowTo = new int[NUM_WINDOWS];
+    private int nextWindow = 0;
+
+    // Bind stats.
+    private int numBinds = 0;
+    private int numWarmBinds = 0;
+    private long totalBindNanos = 0;
+    private long maxBindNanos = 0;
+
+    /**
+     * Starts over with these rows (e.g. a new adapter was set).
+     */
+    synchronized void setRows(final List<RowBase> rows, final RowWarmer rowWarmer) {
+        this.rows = rows;
+        this.rowWarmer = rowWarmer;
+        lastFirstVisibleItem = -1;
+        generation.incrementAndGet();
+        for (int i = 0; i < NUM_WINDOWS; ++i) {
+            windowFrom[i] = windowTo[i] = 0;
+        }
+    }
+
+    /**
+     * Stops prefetching for good, waiting for a prefetch in progress to
+     * finish its row, so that the dictionary can be closed afterwards.
+     */
+    void shutdown() {
+        setRows(null, null);
+        prefetchExecutor.shutdown();
+        try {
+            if (!prefetchExecutor.awaitTermination(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                Log.w(LOG, "Prefetch still running after " + SHUTDOWN_WAIT_MILLIS + "ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+            int totalItemCount) {
+        final List<RowBase> rows;
+        final RowWarmer rowWarmer;
+        final int from, to;
+        synchronized (this) {
+            if (this.rows == null || firstVisibleItem == lastFirstVisibleItem
+                    || prefetchExecutor.isShutdown()) {
+                return;
+            }
+            rows = this.rows;
+            rowWarmer = this.rowWarmer;
+            if (firstVisibleItem >= lastFirstVisibleItem) {
+                from = firstVisibleItem + visibleItemCount;
+                to = Math.min(rows.size(), from + PREFETCH_ROWS);
+            } else {
+                to = firstVisibleItem;
+                from = Math.max(0, to - PREFETCH_ROWS);
+            }
+            lastFirstVisibleItem = firstVisibleItem;
+            if (from >= to || isWarm(from) && isWarm(to - 1)) {
+                return;
+            }
+        }
+        final int thisGeneration = generation.incrementAndGet();
+        prefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prefetch(rows, rowWarmer, from, to, thisGeneration);
+            }
+        });
+    }
+
+    private void prefetch(final List<RowBase> rows, final RowWarmer rowWarmer, final int from,
+            final int to, final int thisGeneration) {
+        final long startMillis = System.currentTimeMillis();
+        try {
+            // In order, so the reads are sequential in the file.
+            for (int i = from; i < to; ++i) {
+                if (generation.get() != thisGeneration) {
+                    return;
+                }
+                final RowBase row = rows.get(i);
+                if (row instanceof PairEntry.Row) {
+                    ((PairEntry.Row) row).getEntry();
+                } else if (row instanceof TextEntry.Row) {
+                    ((TextEntry.Row) row).getEntry();
+                } else if (row instanceof HtmlEntry.Row) {
+                    ((HtmlEntry.Row) row).getEntry();
+                }
+                final TokenRow tokenRow = row.getTokenRow(true);
+                if (tokenRow != null) {
+                    tokenRow.getIndexEntry();
+                }
+                if (rowWarmer != null) {
+                    rowWarmer.warm(row);
+                }
+            }
+        } catch (RuntimeException e) {
+            // Most likely the dictionary was closed under us.
+            Log.w(LOG, "Prefetch failed: " + e);
+            return;
+        }
+        synchronized (this) {
+            if (this.rows != rows) {
+                return;
+            }
+            windowFrom[nextWindow] = from;
+            windowTo[nextWindow] = to;
+            nextWindow = (nextWindow + 1) % NUM_WINDOWS;
+        }
+        Log.d(LOG, "Prefetched rows " + from + "-" + to + " in "
+                + (System.currentTimeMillis() - startMillis) + "ms");
+    }
+
+    private boolean isWarm(final int position) {
+        for (int i = 0; i < NUM_WINDOWS; ++i) {
+            if (position >= windowFrom[i] && position < windowTo[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called by the adapter once it has bound the view for position.
+     */
+    synchronized void onBind(final int position, final long bindNanos) {
+        ++numBinds;
+        if (isWarm(position)) {
+            ++numWarmBinds;
+        }
+        totalBindNanos += bindNanos;
+        maxBindNanos = Math.max(maxBindNanos, bindNanos);
+        if (numBinds % LOG_EVERY_BINDS == 0) {
+            Log.d(LOG, String.format("Row binds: %d, prefetched: %.1f%%, avg: %dus, max: %dus",
+                    numBinds, 100.0 * numWarmBinds / numBinds,
+                    totalBindNanos / numBinds / 1000, maxBindNanos / 1000));
+        }
+    }
+
+    interface RowWarmer {
+        /**
+         * Called on the prefetch thread for each prefetched row.
+         */
+        void warm(RowBase row);
+    }
+
+}
@@ -0,0 +1,366 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary;
+
+import android.annotation.SuppressLint;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The user's word list file, appended to in the background: lines saved in
+ * quick succession are written together, with one open, sync and close.
+ * <p>
+ * Also keeps the set of (index, token) that have been saved, so rows can be
+ * marked as such. The set is persisted in a sidecar file (the word list's
+ * name plus .idx) as records of the keys added and the word list length
+ * they cover, so that loading only has to parse lines added since (e.g. by
+ * hand). If the word list got shorter, it's parsed from scratch. A record
+ * cut short (by a crash, say) is cut off the sidecar before anything else is
+ * appended to it.
+ */
+final class WordList {
+
+    static final String LOG = "QuickDic";
+
+    static final String INDEX_SUFFIX = ".idx";
+
+    // How long an append waits for more appends to write along with it.
+    private static final long COMMIT_DELAY_MILLIS = 500;
+
+    interface Callback {
+        /** Called on the word list thread. */
+        void onAppendFailed(File file, IOException e);
+    }
+
+    interface LoadListener {
+        /** Called on the word list thread, once isSaved knows every token. */
+        void onLoaded(WordList wordList);
+    }
+
+    private static final ScheduledExecutorService wordListExecutor = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "wordListExecutor");
+                }
+            });
+
+    private static final Map<File, WordList> fileToWordList = new HashMap<File, WordList>();
+
+    private final File file;
+    private final File indexFile;
+
+    // Guarded by this.
+    private final Set<String> savedKeys = new HashSet<String>();
+    private final List<String> pendingLines = new ArrayList<String>();
+    private final List<Callback> pendingCallbacks = new ArrayList<Callback>();
+    private final List<String> pendingKeys = new ArrayList<String>();
+    private final List<LoadListener> loadListeners = new ArrayList<LoadListener>();
+    private boolean loaded = false;
+    @SuppressLint("SimpleDateFormat")
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss");
+
+    private WordList(final File file) {
+        this.file = file;
+        this.indexFile = new File(file.getPath() + INDEX_SUFFIX);
+    }
+
+    /**
+     * The (one) WordList for file, which starts loading its saved tokens in
+     * the background.
+     */
+    static synchronized WordList get(final File file) {
+        WordList wordList = fileToWordList.get(file);
+        if (wordList == null) {
+            wordList = new WordList(file);
+            fileToWordList.put(file, wordList);
+            final WordList toLoad = wordList;
+            // Ahead of any appends, since it's the same thread.
+            wordListExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    toLoad.load();
+                }
+            });
+        }
+        return wordList;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Has listener told when loading finishes, unless it already has. Until
+     * then, isSaved only knows about tokens appended since.
+     */
+    synchronized void addLoadListener(final LoadListener listener) {
+        if (!loaded) {
+            loadListeners.add(listener);
+        }
+    }
+
+    synchronized void removeLoadListener(final LoadListener listener) {
+        loadListeners.remove(listener);
+    }
+
+    synchronized boolean isSaved(final String indexLongName, final String token) {
+        return savedKeys.contains(key(indexLongName, token));
+    }
+
+    /**
+     * Queues a line for the word list; isSaved reflects it right away.
+     */
+    synchronized void append(final String indexLongName, final String token,
+            final String rawText, final Callback callback) {
+        final String key = key(indexLongName, token);
+        savedKeys.add(key);
+        pendingKeys.add(key);
+        pendingLines.add(dateFormat.format(new Date()) + "\t" + indexLongName + "\t" + token
+                + "\t" + rawText);
+        pendingCallbacks.add(callback);
+        if (pendingLines.size() == 1) {
+            wordListExecutor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    commit();
+                }
+            }, COMMIT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void commit() {
+        final List<String> lines;
+        final List<String> keys;
+        final List<Callback> callbacks;
+        synchronized (this) {
+            lines = new ArrayList<String>(pendingLines);
+            keys = new ArrayList<String>(pendingKeys);
+            callbacks = new ArrayList<Callback>(pendingCallbacks);
+            pendingLines.clear();
+            pendingKeys.clear();
+            pendingCallbacks.clear();
+        }
+        if (lines.isEmpty()) {
+            return;
+        }
+        try {
+            file.getParentFile().mkdirs();
+            final FileOutputStream fileOut = new FileOutputStream(file, true);
+            try {
+                final Writer out = new BufferedWriter(new OutputStreamWriter(fileOut, "UTF-8"));
+                for (final String line : lines) {
+                    out.write(line);
+                    out.write("\n");
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG, "Unable to append to " + file.getAbsolutePath(), e);
+            for (final Callback callback : new HashSet<Callback>(callbacks)) {
+                callback.onAppendFailed(file, e);
+            }
+            return;
+        }
+        Log.d(LOG, "Appended " + lines.size() + " lines to " + file);
+        writeIndexRecord(keys, file.length(), true);
+    }
+
+    private void load() {
+        final long startMillis = System.currentTimeMillis();
+        final Set<String> keys = new HashSet<String>();
+        long coveredLength = readIndex(keys);
+        final long length = file.length();
+        final boolean startOver = coveredLength > length;
+        if (startOver) {
+            Log.w(LOG, "Word list got shorter, re-reading all of it: " + file);
+            keys.clear();
+            coveredLength = 0;
+            // Whatever is left of the word list (maybe nothing) gets a new
+            // index, and none of the old one may survive a failed parse.
+            if (indexFile.exists() && !indexFile.delete()) {
+                writeIndexRecord(new ArrayList<String>(), 0, false);
+            }
+        }
+        if (coveredLength < length) {
+            final List<String> newKeys = new ArrayList<String>();
+            try {
+                parseLines(coveredLength, newKeys);
+            } catch (IOException e) {
+                Log.e(LOG, "Unable to read " + file.getAbsolutePath(), e);
+                finishLoading(keys);
+                return;
+            }
+            keys.addAll(newKeys);
+            writeIndexRecord(newKeys, length, !startOver);
+        }
+        finishLoading(keys);
+        Log.d(LOG, "Loaded " + keys.size() + " word list tokens in "
+                + (System.currentTimeMillis() - startMillis) + "ms");
+    }
+
+    private void finishLoading(final Set<String> keys) {
+        final List<LoadListener> listeners;
+        synchronized (this) {
+            savedKeys.addAll(keys);
+            loaded = true;
+            listeners = new ArrayList<LoadListener>(loadListeners);
+            loadListeners.clear();
+        }
+        for (final LoadListener listener : listeners) {
+            listener.onLoaded(this);
+        }
+    }
+
+    /**
+     * Reads all complete records of the index file into keys, and cuts off
+     * anything after them, so records appended later can be read back.
+     *
+     * @return the word list length covered by them.
+     */
+    private long readIndex(final Set<String> keys) {
+        if (!indexFile.exists()) {
+            return 0;
+        }
+        final byte[] bytes = new byte[(int) indexFile.length()];
+        try {
+            final DataInputStream fileIn = new DataInputStream(new FileInputStream(indexFile));
+            try {
+                fileIn.readFully(bytes);
+            } finally {
+                fileIn.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG, "Unable to read " + indexFile.getAbsolutePath(), e);
+            // Rather than append to what couldn't be read.
+            indexFile.delete();
+            return 0;
+        }
+
+        final ByteArrayInputStream byteIn = new ByteArrayInputStream(bytes);
+        final DataInputStream in = new DataInputStream(byteIn);
+        final List<String> recordKeys = new ArrayList<String>();
+        long coveredLength = 0;
+        int completeLength = 0;
+        try {
+            while (byteIn.available() > 0) {
+                final int numKeys = in.readInt();
+                recordKeys.clear();
+                for (int i = 0; i < numKeys; ++i) {
+                    recordKeys.add(in.readUTF());
+                }
+                final long recordLength = in.readLong();
+                keys.addAll(recordKeys);
+                coveredLength = recordLength;
+                completeLength = bytes.length - byteIn.available();
+            }
+        } catch (IOException e) {
+            // The last record was cut off (or garbled); the lines it was for
+            // get parsed again.
+            Log.w(LOG, "Cutting " + indexFile + " back to its complete records: "
+                    + completeLength + " of " + bytes.length + " bytes");
+            try {
+                final RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+                try {
+                    raf.setLength(completeLength);
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e2) {
+                Log.e(LOG, "Unable to truncate " + indexFile.getAbsolutePath(), e2);
+                // Everything gets parsed and written again instead.
+                indexFile.delete();
+                return 0;
+            }
+        }
+        return coveredLength;
+    }
+
+    private void parseLines(final long from, final List<String> keys) throws IOException {
+        final FileInputStream fileIn = new FileInputStream(file);
+        try {
+            long skipped = 0;
+            while (skipped < from) {
+                skipped += fileIn.skip(from - skipped);
+            }
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(fileIn,
+                    "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t", 4);
+                if (fields.length >= 3) {
+                    keys.add(key(fields[1], fields[2]));
+                }
+            }
+        } finally {
+            fileIn.close();
+        }
+    }
+
+    private void writeIndexRecord(final List<String> keys, final long coveredLength,
+            final boolean append) {
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(indexFile, append)));
+            try {
+                out.writeInt(keys.size());
+                for (final String key : keys) {
+                    out.writeUTF(key);
+                }
+                out.writeLong(coveredLength);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            // Not fatal, it just means parsing more next time.
+            Log.w(LOG, "Unable to write " + indexFile.getAbsolutePath(), e);
+        }
+    }
+
+    private static String key(final String indexLongName, final String token) {
+        return indexLongName + "\t" + token;
+    }
+
+}
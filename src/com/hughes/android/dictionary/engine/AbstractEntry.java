@@ -16,6 +16,7 @@ package com.hughes.android.dictionary.engine;
 
 import com.hughes.util.IndexedObject;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 
@@ -40,7 +41,15 @@ public abstract class AbstractEntry extends IndexedObject {
     }
 
     public void write(RandomAccessFile raf) throws IOException {
-        raf.writeShort(entrySource.index());
+        write((DataOutput) raf);
+    }
+
+    /**
+     * The same bytes as write(RandomAccessFile), to any DataOutput, e.g. a
+     * buffer (see ParallelSerializer).
+     */
+    void write(final DataOutput out) throws IOException {
+        out.writeShort(entrySource.index());
     }
 
     public abstract void addToDictionary(final Dictionary dictionary);
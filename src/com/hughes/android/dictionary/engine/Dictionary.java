@@ -15,11 +15,14 @@
 package com.hughes.android.dictionary.engine;
 
 import com.hughes.android.dictionary.DictionaryInfo;
+import com.hughes.android.util.BufferedRandomAccessFile;
+import com.hughes.android.util.ZipEntryRandomAccessFile;
 import com.hughes.util.CachingList;
 import com.hughes.util.raf.RAFList;
 import com.hughes.util.raf.RAFListSerializer;
 import com.hughes.util.raf.RAFSerializable;
 
+import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -27,12 +30,16 @@ import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class Dictionary implements RAFSerializable<Dictionary> {
 
     static final int CACHE_SIZE = 5000;
+    static final long HTML_ENTRY_CACHE_BYTES = 4 * 1024 * 1024;
 
-    static final int CURRENT_DICT_VERSION = 6;
+    static final int CURRENT_DICT_VERSION = 7;
     static final String END_OF_DICTIONARY = "END OF DICTIONARY";
 
     // persisted
@@ -44,10 +51,16 @@ public class Dictionary implements RAFSerializable<Dictionary> {
     public final List<HtmlEntry> htmlEntries;
     public final List<EntrySource> sources;
     public final List<Index> indices;
+    // dictFileVersion >= 7 only, otherwise null.
+    HtmlPresetDictionary htmlPresetDictionary;
+
+    // Decompressed HtmlEntry bodies, shared by all of them.
+    public final HtmlEntryCache htmlEntryCache = new HtmlEntryCache(HTML_ENTRY_CACHE_BYTES);
 
     /**
      * dictFileVersion 1 adds: <li>links to sources? dictFileVersion 2 adds: <li>
-     * counts of tokens in indices.
+     * counts of tokens in indices. dictFileVersion 7 adds: <li>a deflate preset
+     * dictionary shared by all HtmlEntries.
      */
 
     public Dictionary(final String dictInfo) {
@@ -83,6 +96,9 @@ public class Dictionary implements RAFSerializable<Dictionary> {
             textEntries = CachingList.create(
                     RAFList.create(raf, new TextEntry.Serializer(this), raf.getFilePointer()),
                     CACHE_SIZE);
+            if (dictFileVersion >= 7) {
+                htmlPresetDictionary = new HtmlPresetDictionary(raf);
+            }
             if (dictFileVersion >= 5) {
                 htmlEntries = CachingList.create(
                         RAFList.create(raf, new HtmlEntry.Serializer(this), raf.getFilePointer()),
@@ -103,17 +119,87 @@ public class Dictionary implements RAFSerializable<Dictionary> {
         }
     }
 
+    /**
+     * Writes the dictionary to file (replacing it) through a
+     * BufferedRandomAccessFile, which is much faster than a RandomAccessFile,
+     * where every field is a syscall.
+     */
+    public void write(final File file) throws IOException {
+        final RandomAccessFile raf = new BufferedRandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            write(raf);
+        } finally {
+            raf.close();
+        }
+    }
+
     @Override
     public void write(RandomAccessFile raf) throws IOException {
-        raf.writeInt(dictFileVersion);
-        raf.writeLong(creationMillis);
-        raf.writeUTF(dictInfo);
-        RAFList.write(raf, sources, new EntrySource.Serializer(this));
-        RAFList.write(raf, pairEntries, new PairEntry.Serializer(this));
-        RAFList.write(raf, textEntries, new TextEntry.Serializer(this));
-        RAFList.write(raf, htmlEntries, new HtmlEntry.Serializer(this));
-        RAFList.write(raf, indices, indexSerializer);
-        raf.writeUTF(END_OF_DICTIONARY);
+        write(raf, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param numThreads to serialize (and compress) entries on; with 1,
+     *            everything's done on this thread. The file is the same
+     *            either way.
+     */
+    public void write(final RandomAccessFile raf, final int numThreads) throws IOException {
+        final ExecutorService executor = numThreads > 1 ? Executors.newFixedThreadPool(
+                numThreads, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "entryWriter");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }) : null;
+        try {
+            raf.writeInt(dictFileVersion);
+            raf.writeLong(creationMillis);
+            raf.writeUTF(dictInfo);
+            RAFList.write(raf, sources, new EntrySource.Serializer(this));
+            RAFList.write(raf, pairEntries, entrySerializer(pairEntries,
+                    new PairEntry.Serializer(this), executor, numThreads));
+            RAFList.write(raf, textEntries, entrySerializer(textEntries,
+                    new TextEntry.Serializer(this), executor, numThreads));
+            if (dictFileVersion >= 7) {
+                if (htmlPresetDictionary == null) {
+                    htmlPresetDictionary = HtmlPresetDictionary.train(htmlEntries);
+                }
+                htmlPresetDictionary.write(raf);
+            }
+            final HtmlEntry.Serializer htmlEntrySerializer = new HtmlEntry.Serializer(this);
+            RAFList.write(raf, htmlEntries, executor == null ? htmlEntrySerializer
+                    : new ParallelSerializer<HtmlEntry>(htmlEntries,
+                            new ParallelSerializer.Writer<HtmlEntry>() {
+                                @Override
+                                public void write(DataOutput out, HtmlEntry t) throws IOException {
+                                    htmlEntrySerializer.write(out, t);
+                                }
+                            }, executor, 2 * numThreads).forWriting(htmlEntrySerializer));
+            // Indices have nested RAFLists, so they stay on this thread.
+            RAFList.write(raf, indices, indexSerializer);
+            raf.writeUTF(END_OF_DICTIONARY);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static <T extends AbstractEntry> RAFListSerializer<T> entrySerializer(
+            final List<T> entries, final RAFListSerializer<T> serializer,
+            final ExecutorService executor, final int numThreads) {
+        if (executor == null) {
+            return serializer;
+        }
+        return new ParallelSerializer<T>(entries, new ParallelSerializer.Writer<T>() {
+            @Override
+            public void write(DataOutput out, T t) throws IOException {
+                t.write(out);
+            }
+        }, executor, 2 * numThreads).forWriting(serializer);
     }
 
     private final RAFListSerializer<Index> indexSerializer = new RAFListSerializer<Index>() {
@@ -168,11 +254,11 @@ public class Dictionary implements RAFSerializable<Dictionary> {
     public static DictionaryInfo getDictionaryInfo(final File file) {
         RandomAccessFile raf = null;
         try {
-            raf = new RandomAccessFile(file, "r");
+            raf = ZipEntryRandomAccessFile.open(file);
             final Dictionary dict = new Dictionary(raf);
             final DictionaryInfo dictionaryInfo = dict.getDictionaryInfo();
-            dictionaryInfo.uncompressedFilename = file.getName();
-            dictionaryInfo.uncompressedBytes = file.length();
+            dictionaryInfo.uncompressedFilename = ZipEntryRandomAccessFile.unzippedName(file);
+            dictionaryInfo.uncompressedBytes = raf.length();
             raf.close();
             return dictionaryInfo;
         } catch (IOException e) {
@@ -0,0 +1,136 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine;
+
+import com.hughes.android.util.BufferedRandomAccessFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Times writing a synthetic dictionary (pair entries, and an index with a
+ * token row and a row per entry) through a plain RandomAccessFile against a
+ * BufferedRandomAccessFile, and checks the two files are the same.
+ * <p>
+ * Usage: DictionaryWriteBenchmark [numEntries] [numThreads]
+ */
+final class DictionaryWriteBenchmark {
+
+    private DictionaryWriteBenchmark() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        final Dictionary dict = createDictionary(numEntries);
+
+        final File plainFile = File.createTempFile("plain", ".quickdic");
+        final File bufferedFile = File.createTempFile("buffered", ".quickdic");
+        try {
+            for (int round = 0; round < 2; ++round) {
+                // The first round is warm-up.
+                final boolean print = round == 1;
+
+                long start = System.nanoTime();
+                final RandomAccessFile plain = new RandomAccessFile(plainFile, "rw");
+                try {
+                    plain.setLength(0);
+                    dict.write(plain, numThreads);
+                } finally {
+                    plain.close();
+                }
+                final long plainMillis = (System.nanoTime() - start) / 1000000;
+
+                start = System.nanoTime();
+                final RandomAccessFile buffered = new BufferedRandomAccessFile(bufferedFile, "rw");
+                try {
+                    buffered.setLength(0);
+                    dict.write(buffered, numThreads);
+                } finally {
+                    buffered.close();
+                }
+                final long bufferedMillis = (System.nanoTime() - start) / 1000000;
+
+                if (!Arrays.equals(readFully(plainFile), readFully(bufferedFile))) {
+                    throw new IllegalStateException("Files differ.");
+                }
+                if (print) {
+                    System.out.println(numEntries + " entries, " + plainFile.length() + " bytes");
+                    System.out.println("RandomAccessFile:         " + plainMillis + "ms");
+                    System.out.println("BufferedRandomAccessFile: " + bufferedMillis + "ms");
+                }
+            }
+        } finally {
+            plainFile.delete();
+            bufferedFile.delete();
+        }
+    }
+
+    private static Dictionary createDictionary(final int numEntries) {
+        final Dictionary dict = new Dictionary("DictionaryWriteBenchmark");
+        final EntrySource entrySource = new EntrySource(0, "synthetic", numEntries);
+        dict.sources.add(entrySource);
+        final Random random = new Random(0);
+        for (int i = 0; i < numEntries; ++i) {
+            final PairEntry pairEntry = new PairEntry(entrySource, randomText(random),
+                    randomText(random));
+            pairEntry.addToDictionary(dict);
+        }
+
+        final Index index = new Index(dict, "EN", "English", Language.en, ":: Lower;", false,
+                new HashSet<String>());
+        for (int i = 0; i < numEntries; ++i) {
+            final String token = "token" + i;
+            index.sortedIndexEntries.add(new Index.IndexEntry(index, token, token,
+                    index.rows.size(), 1));
+            index.rows.add(new TokenRow(i, index.rows.size(), index, true));
+            index.rows.add(new PairEntry.Row(i, index.rows.size(), index));
+        }
+        index.mainTokenCount = numEntries;
+        dict.indices.add(index);
+        return dict;
+    }
+
+    private static String randomText(final Random random) {
+        final StringBuilder result = new StringBuilder();
+        final int numWords = 1 + random.nextInt(6);
+        for (int i = 0; i < numWords; ++i) {
+            if (i > 0) {
+                result.append(' ');
+            }
+            final int numChars = 2 + random.nextInt(8);
+            for (int j = 0; j < numChars; ++j) {
+                result.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return result.toString();
+    }
+
+    private static byte[] readFully(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+
+}
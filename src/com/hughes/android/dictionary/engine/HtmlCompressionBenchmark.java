@@ -0,0 +1,106 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine;
+
+import com.hughes.util.StringUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares how HtmlEntries are stored before v7 (each one on its own
+ * through StringUtil.zipBytes) with v7 (raw deflate against the shared
+ * HtmlPresetDictionary): total stored bytes, and the time to inflate an
+ * entry.
+ * <p>
+ * Usage: HtmlCompressionBenchmark [file.html ...]; without files, uses the
+ * same synthetic entries as HtmlSearchBenchmark.
+ */
+final class HtmlCompressionBenchmark {
+
+    private static final int NUM_ROUNDS = 5;
+
+    private HtmlCompressionBenchmark() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final Dictionary dict = new Dictionary("HtmlCompressionBenchmark");
+        final EntrySource entrySource = new EntrySource(0, "html", 0);
+        dict.sources.add(entrySource);
+        if (args.length > 0) {
+            for (final String arg : args) {
+                final HtmlEntry htmlEntry = new HtmlEntry(entrySource, new File(arg).getName());
+                htmlEntry.html = new String(HtmlSearchBenchmark.readFully(new File(arg)),
+                        "UTF-8");
+                htmlEntry.addToDictionary(dict);
+            }
+        } else {
+            HtmlSearchBenchmark.addSyntheticEntries(dict, entrySource);
+        }
+
+        final List<byte[]> htmls = new ArrayList<byte[]>();
+        long htmlBytes = 0;
+        for (final HtmlEntry htmlEntry : dict.htmlEntries) {
+            final byte[] bytes = htmlEntry.getHtml().getBytes("UTF-8");
+            htmls.add(bytes);
+            htmlBytes += bytes.length;
+        }
+
+        long startNanos = System.nanoTime();
+        final HtmlPresetDictionary presetDictionary = HtmlPresetDictionary.train(
+                dict.htmlEntries);
+        final long trainMillis = (System.nanoTime() - startNanos) / 1000000;
+
+        final List<byte[]> zipped = new ArrayList<byte[]>();
+        final List<byte[]> deflated = new ArrayList<byte[]>();
+        long zippedBytes = 0;
+        long deflatedBytes = presetDictionary.size();
+        for (final byte[] html : htmls) {
+            final byte[] zip = StringUtil.zipBytes(html);
+            zipped.add(zip);
+            zippedBytes += zip.length;
+            final byte[] deflate = presetDictionary.deflate(html);
+            deflated.add(deflate);
+            deflatedBytes += deflate.length;
+        }
+
+        long zipNanos = Long.MAX_VALUE;
+        long deflateNanos = Long.MAX_VALUE;
+        // Best of NUM_ROUNDS, the first of which warms up.
+        for (int round = 0; round < NUM_ROUNDS; ++round) {
+            startNanos = System.nanoTime();
+            for (int i = 0; i < htmls.size(); ++i) {
+                StringUtil.unzipFully(zipped.get(i), new byte[htmls.get(i).length]);
+            }
+            zipNanos = Math.min(zipNanos, System.nanoTime() - startNanos);
+
+            startNanos = System.nanoTime();
+            for (int i = 0; i < htmls.size(); ++i) {
+                presetDictionary.inflate(deflated.get(i), new byte[htmls.get(i).length]);
+            }
+            deflateNanos = Math.min(deflateNanos, System.nanoTime() - startNanos);
+        }
+
+        System.out.println(htmls.size() + " entries, " + htmlBytes + " bytes of HTML");
+        System.out.println("StringUtil.zipBytes: " + zippedBytes + " bytes, "
+                + zipNanos / 1000 / htmls.size() + "us/entry to inflate");
+        System.out.println("Preset deflate: " + deflatedBytes + " bytes (including the "
+                + presetDictionary.size() + " byte dictionary, trained in " + trainMillis
+                + "ms), " + deflateNanos / 1000 / htmls.size() + "us/entry to inflate");
+    }
+
+}
@@ -10,12 +10,24 @@ import com.hughes.util.raf.RAFListSerializer;
 import com.hughes.util.raf.RAFSerializable;
 import com.ibm.icu.text.Transliterator;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
-import java.lang.ref.SoftReference;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 public class HtmlEntry extends AbstractEntry implements RAFSerializable<HtmlEntry>,
         Comparable<HtmlEntry> {
@@ -25,36 +37,264 @@ public class HtmlEntry extends AbstractEntry implements RAFSerializable<HtmlEntr
     public final LazyHtmlLoader lazyHtmlLoader;
     public String html;
 
+    // dictFileVersion >= 7: where each Index's search tokens are, in the
+    // same order as Dictionary.indices; otherwise null.
+    final RandomAccessFile raf;
+    final long[] searchTokensOffsets;
+    final int[] searchTokensLengths;
+    final int[] searchTokensZipLengths;
+
     public HtmlEntry(final EntrySource entrySource, String title) {
         super(entrySource);
         this.title = title;
         lazyHtmlLoader = null;
+        raf = null;
+        searchTokensOffsets = null;
+        searchTokensLengths = null;
+        searchTokensZipLengths = null;
     }
 
     public HtmlEntry(Dictionary dictionary, RandomAccessFile raf, final int index)
             throws IOException {
         super(dictionary, raf, index);
         title = raf.readUTF();
-        lazyHtmlLoader = new LazyHtmlLoader(raf);
+        lazyHtmlLoader = new LazyHtmlLoader(raf, dictionary.htmlPresetDictionary,
+                dictionary.htmlEntryCache, index);
         html = null;
+        if (dictionary.dictFileVersion >= 7) {
+            this.raf = raf;
+            final int numIndices = raf.readInt();
+            searchTokensOffsets = new long[numIndices];
+            searchTokensLengths = new int[numIndices];
+            searchTokensZipLengths = new int[numIndices];
+            for (int i = 0; i < numIndices; ++i) {
+                searchTokensLengths[i] = raf.readInt();
+                searchTokensZipLengths[i] = raf.readInt();
+                searchTokensOffsets[i] = raf.getFilePointer();
+                raf.skipBytes(searchTokensZipLengths[i]);
+            }
+        } else {
+            this.raf = null;
+            searchTokensOffsets = null;
+            searchTokensLengths = null;
+            searchTokensZipLengths = null;
+        }
     }
 
     @Override
-    public void write(RandomAccessFile raf) throws IOException {
-        super.write(raf);
-        raf.writeUTF(title);
+    void write(final DataOutput out) throws IOException {
+        write(out, null, null);
+    }
+
+    /**
+     * @param presetDictionary to deflate with, or null for the pre-v7 format.
+     * @param indices to write search tokens for (v7), or null.
+     */
+    void write(final DataOutput out, final HtmlPresetDictionary presetDictionary,
+            final List<Index> indices) throws IOException {
+        super.write(out);
+        out.writeUTF(title);
 
         final byte[] bytes = getHtml().getBytes("UTF-8");
-        final byte[] zipBytes = StringUtil.zipBytes(bytes);
-        raf.writeInt(bytes.length);
-        raf.writeInt(zipBytes.length);
-        raf.write(zipBytes);
+        final byte[] zipBytes = presetDictionary != null ? presetDictionary.deflate(bytes)
+                : StringUtil.zipBytes(bytes);
+        out.writeInt(bytes.length);
+        out.writeInt(zipBytes.length);
+        out.write(zipBytes);
+
+        if (indices != null) {
+            final String plainText = getPlainText();
+            out.writeInt(indices.size());
+            for (final Index index : indices) {
+                final byte[] searchTokens = encodeSearchTokens(index.threadNormalizer().transform(
+                        plainText));
+                final byte[] zipped = presetDictionary.deflate(searchTokens);
+                out.writeInt(searchTokens.length);
+                out.writeInt(zipped.length);
+                out.write(zipped);
+            }
+        }
     }
 
     String getHtml() {
         return html != null ? html : lazyHtmlLoader.getHtml();
     }
 
+    /**
+     * The title and the entry minus the markup: what the search tokens are
+     * made from.
+     */
+    String getPlainText() {
+        return title + ":\n" + htmlToPlainText(getHtml());
+    }
+
+    /**
+     * This entry's text, normalized for index, as stored in the file, or null
+     * if the file doesn't have it. Read without inflating the HTML.
+     */
+    SearchTokens getSearchTokens(final Index index) {
+        if (searchTokensOffsets == null) {
+            return null;
+        }
+        final int i = index.dict.indices.indexOf(index);
+        if (i < 0 || i >= searchTokensOffsets.length) {
+            return null;
+        }
+        final byte[] zipped = new byte[searchTokensZipLengths[i]];
+        try {
+            synchronized (raf) {
+                raf.seek(searchTokensOffsets[i]);
+                raf.readFully(zipped);
+            }
+            final byte[] bytes = new byte[searchTokensLengths[i]];
+            // With the HTML's pooled Inflaters.
+            lazyHtmlLoader.presetDictionary.inflate(zipped, bytes);
+            return decodeSearchTokens(bytes);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * An entry's text as stored for one index: its distinct words (split on
+     * whitespace, like search tokens are) and the text as the sequence of
+     * them, which is all the ordered match needs, and is only decoded for
+     * that.
+     */
+    static final class SearchTokens {
+        // Sorted and space separated.
+        final String words;
+        private final byte[] encoded;
+        private final int sequenceStart;
+
+        SearchTokens(final String words, final byte[] encoded, final int sequenceStart) {
+            this.words = words;
+            this.encoded = encoded;
+            this.sequenceStart = sequenceStart;
+        }
+
+        /**
+         * Whether each search token (which has no whitespace) is in one of
+         * the words, i.e. in the text.
+         */
+        boolean containsAll(final List<String> searchTokens) {
+            for (int i = searchTokens.size() - 1; i >= 0; --i) {
+                if (!words.contains(searchTokens.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * The text with its whitespace collapsed to single spaces, which
+         * doesn't change what orderedMatchPattern finds.
+         */
+        String text() {
+            final String[] distinct = words.length() > 0 ? words.split(" ") : new String[0];
+            final StringBuilder result = new StringBuilder(2 * words.length());
+            final int[] pos = { sequenceStart };
+            while (pos[0] < encoded.length) {
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append(distinct[readVarint(encoded, pos)]);
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * The words of normalizedText: the number of distinct words, then each
+     * of them, sorted and front-coded (the number of leading UTF-8 bytes it
+     * shares with the one before, at most 255, then the length of the rest
+     * and the rest), then the text as the position of each of its words in
+     * that list. Numbers are varints.
+     */
+    static byte[] encodeSearchTokens(final String normalizedText) throws IOException {
+        final List<String> text = new ArrayList<String>();
+        for (final String word : WHITESPACE.split(normalizedText)) {
+            if (word.length() > 0) {
+                text.add(word);
+            }
+        }
+        final Map<String, Integer> wordToPosition = new TreeMap<String, Integer>();
+        for (final String word : text) {
+            wordToPosition.put(word, 0);
+        }
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        writeVarint(result, wordToPosition.size());
+        byte[] previous = new byte[0];
+        int position = 0;
+        for (final Map.Entry<String, Integer> entry : wordToPosition.entrySet()) {
+            entry.setValue(position++);
+            final byte[] bytes = entry.getKey().getBytes("UTF-8");
+            final int maxShared = Math.min(255, Math.min(previous.length, bytes.length));
+            int shared = 0;
+            while (shared < maxShared && previous[shared] == bytes[shared]) {
+                ++shared;
+            }
+            result.write(shared);
+            writeVarint(result, bytes.length - shared);
+            result.write(bytes, shared, bytes.length - shared);
+            previous = bytes;
+        }
+        for (final String word : text) {
+            writeVarint(result, wordToPosition.get(word));
+        }
+        return result.toByteArray();
+    }
+
+    static SearchTokens decodeSearchTokens(final byte[] encoded) throws IOException {
+        final int[] pos = { 0 };
+        final int numWords = readVarint(encoded, pos);
+        // The words, space separated, as UTF-8.
+        final ByteArrayOutputStream words = new ByteArrayOutputStream(2 * encoded.length);
+        byte[] word = new byte[64];
+        for (int i = 0; i < numWords; ++i) {
+            final int shared = encoded[pos[0]++] & 0xff;
+            final int rest = readVarint(encoded, pos);
+            if (shared + rest > word.length) {
+                word = Arrays.copyOf(word, Math.max(shared + rest, 2 * word.length));
+            }
+            System.arraycopy(encoded, pos[0], word, shared, rest);
+            pos[0] += rest;
+            if (i > 0) {
+                words.write(' ');
+            }
+            words.write(word, 0, shared + rest);
+        }
+        return new SearchTokens(words.toString("UTF-8"), encoded, pos[0]);
+    }
+
+    private static void writeVarint(final ByteArrayOutputStream out, int value) {
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(final byte[] bytes, final int[] pos) {
+        int result = 0;
+        for (int shift = 0;; shift += 7) {
+            final byte b = bytes[pos[0]++];
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * The UTF-8 bytes of the HTML, inflated as they're read rather than all
+     * up front.
+     */
+    InputStream openHtmlStream() throws IOException {
+        return html != null ? new ByteArrayInputStream(html.getBytes("UTF-8"))
+                : lazyHtmlLoader.openHtmlStream();
+    }
+
     @Override
     public void addToDictionary(Dictionary dictionary) {
         assert index == -1;
@@ -82,7 +322,12 @@ public class HtmlEntry extends AbstractEntry implements RAFSerializable<HtmlEntr
 
         @Override
         public void write(RandomAccessFile raf, HtmlEntry t) throws IOException {
-            t.write(raf);
+            write((DataOutput) raf, t);
+        }
+
+        void write(final DataOutput out, final HtmlEntry t) throws IOException {
+            t.write(out, dictionary.htmlPresetDictionary,
+                    dictionary.dictFileVersion >= 7 ? dictionary.indices : null);
         }
     };
 
@@ -144,7 +389,38 @@ public class HtmlEntry extends AbstractEntry implements RAFSerializable<HtmlEntr
         public RowMatchType matches(final List<String> searchTokens,
                 final Pattern orderedMatchPattern, final Transliterator normalizer,
                 final boolean swapPairEntries) {
-            final String text = normalizer.transform(getRawText(false));
+            final SearchTokens entryTokens = getEntry().getSearchTokens(index);
+            if (entryTokens != null) {
+                return matchesSearchTokens(entryTokens, searchTokens, orderedMatchPattern);
+            }
+            return matchesText(searchTokens, orderedMatchPattern, normalizer);
+        }
+
+        /**
+         * Matches against the stored search tokens (v7), without inflating
+         * the HTML or normalizing anything.
+         */
+        static RowMatchType matchesSearchTokens(final SearchTokens entryTokens,
+                final List<String> searchTokens, final Pattern orderedMatchPattern) {
+            if (!entryTokens.containsAll(searchTokens)) {
+                return RowMatchType.NO_MATCH;
+            }
+            if (searchTokens.size() <= 1) {
+                return RowMatchType.ORDERED_MATCH;
+            }
+            // Only word order is left to check.
+            return orderedMatchPattern.matcher(entryTokens.text()).find()
+                    ? RowMatchType.ORDERED_MATCH : RowMatchType.BAG_OF_WORDS_MATCH;
+        }
+
+        /**
+         * Matches against the normalized HTML, which has to be inflated
+         * (files before v7).
+         */
+        RowMatchType matchesText(final List<String> searchTokens,
+                final Pattern orderedMatchPattern, final Transliterator normalizer) {
+            final HtmlEntry entry = getEntry();
+            final String text = normalizer.transform(entry.getRawText(false));
             if (orderedMatchPattern.matcher(text).find()) {
                 return RowMatchType.ORDERED_MATCH;
             }
@@ -158,15 +434,96 @@ public class HtmlEntry extends AbstractEntry implements RAFSerializable<HtmlEntr
         }
     }
 
-    public static String htmlBody(final List<HtmlEntry> htmlEntries, final String indexShortName) {
-        final StringBuilder result = new StringBuilder();
-        for (final HtmlEntry htmlEntry : htmlEntries) {
-            final String titleEscaped = StringUtil.escapeUnicodeToPureHtml(htmlEntry.title);
-            result.append(String.format("<h1><a href=\"%s\">%s</a></h1>\n<p>%s\n",
-                    formatQuickdicUrl(indexShortName, htmlEntry.title), titleEscaped,
-                    htmlEntry.getHtml()));
+    /**
+     * The HTML for htmlEntries, each under its heading, streamed: each entry
+     * is only read from the file once the previous one has been consumed, and
+     * inflated as it goes.
+     */
+    public static InputStream htmlBodyStream(final List<HtmlEntry> htmlEntries,
+            final String indexShortName) {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            // Three parts per entry: heading, body, trailing newline.
+            int part = 0;
+
+            @Override
+            public boolean hasMoreElements() {
+                return part < 3 * htmlEntries.size();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                if (!hasMoreElements()) {
+                    throw new NoSuchElementException();
+                }
+                final HtmlEntry htmlEntry = htmlEntries.get(part / 3);
+                try {
+                    switch (part++ % 3) {
+                        case 0:
+                            return new ByteArrayInputStream(htmlHeading(htmlEntry, indexShortName)
+                                    .getBytes("UTF-8"));
+                        case 1:
+                            return htmlEntry.openHtmlStream();
+                        default:
+                            return new ByteArrayInputStream(new byte[] { '\n' });
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    private static String htmlHeading(final HtmlEntry htmlEntry, final String indexShortName) {
+        final String titleEscaped = StringUtil.escapeUnicodeToPureHtml(htmlEntry.title);
+        return String.format("<h1><a href=\"%s\">%s</a></h1>\n<p>",
+                formatQuickdicUrl(indexShortName, htmlEntry.title), titleEscaped);
+    }
+
+    private static final Pattern HTML_TAG = Pattern.compile("<[^>]*>");
+    private static final Pattern HTML_CHARACTER_REFERENCE = Pattern
+            .compile("&(#[0-9]+|#[xX][0-9a-fA-F]+|[a-zA-Z]+);");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * Drops the tags, decodes character references and collapses whitespace,
+     * which is plenty for searching.
+     */
+    static String htmlToPlainText(final String html) {
+        final String text = HTML_TAG.matcher(html).replaceAll(" ");
+        final Matcher matcher = HTML_CHARACTER_REFERENCE.matcher(text);
+        final StringBuffer result = new StringBuffer(text.length());
+        while (matcher.find()) {
+            matcher.appendReplacement(result,
+                    Matcher.quoteReplacement(decodeCharacterReference(matcher.group(1))));
+        }
+        matcher.appendTail(result);
+        return WHITESPACE.matcher(result).replaceAll(" ").trim();
+    }
+
+    private static String decodeCharacterReference(final String name) {
+        if (name.charAt(0) == '#') {
+            try {
+                final int codePoint = name.charAt(1) == 'x' || name.charAt(1) == 'X'
+                        ? Integer.parseInt(name.substring(2), 16)
+                        : Integer.parseInt(name.substring(1));
+                return new String(Character.toChars(codePoint));
+            } catch (IllegalArgumentException e) {
+                return " ";
+            }
+        }
+        if (name.equals("amp")) {
+            return "&";
+        } else if (name.equals("lt")) {
+            return "<";
+        } else if (name.equals("gt")) {
+            return ">";
+        } else if (name.equals("quot")) {
+            return "\"";
+        } else if (name.equals("apos")) {
+            return "'";
         }
-        return result.toString();
+        // &nbsp; and anything we don't know.
+        return " ";
     }
 
     public static String formatQuickdicUrl(final String indexShortName, final String text) {
@@ -193,15 +550,20 @@ public class HtmlEntry extends AbstractEntry implements RAFSerializable<HtmlEntr
 
     public static final class LazyHtmlLoader {
         final RandomAccessFile raf;
+        final HtmlPresetDictionary presetDictionary;
+        final HtmlEntryCache htmlEntryCache;
+        final int htmlEntryIndex;
         final long offset;
         final int numBytes;
         final int numZipBytes;
 
-        // Not sure this volatile is right, but oh well.
-        volatile SoftReference<String> htmlRef = new SoftReference<String>(null);
-
-        private LazyHtmlLoader(final RandomAccessFile raf) throws IOException {
+        private LazyHtmlLoader(final RandomAccessFile raf,
+                final HtmlPresetDictionary presetDictionary, final HtmlEntryCache htmlEntryCache,
+                final int htmlEntryIndex) throws IOException {
             this.raf = raf;
+            this.presetDictionary = presetDictionary;
+            this.htmlEntryCache = htmlEntryCache;
+            this.htmlEntryIndex = htmlEntryIndex;
             numBytes = raf.readInt();
             numZipBytes = raf.readInt();
             offset = raf.getFilePointer();
@@ -209,31 +571,52 @@ public class HtmlEntry extends AbstractEntry implements RAFSerializable<HtmlEntr
         }
 
         public String getHtml() {
-            String html = htmlRef.get();
+            String html = htmlEntryCache.get(htmlEntryIndex);
             if (html != null) {
                 return html;
             }
-            System.out.println("Loading Html: numBytes=" + numBytes + ", numZipBytes="
-                    + numZipBytes);
+            final long startNanos = System.nanoTime();
             final byte[] bytes = new byte[numBytes];
-            final byte[] zipBytes = new byte[numZipBytes];
-            synchronized (raf) {
-                try {
-                    raf.seek(offset);
-                    raf.read(zipBytes);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
             try {
-                StringUtil.unzipFully(zipBytes, bytes);
+                if (presetDictionary != null) {
+                    presetDictionary.inflate(readZipBytes(), bytes);
+                } else {
+                    StringUtil.unzipFully(readZipBytes(), bytes);
+                }
                 html = new String(bytes, "UTF-8");
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            htmlRef = new SoftReference<String>(html);
+            System.out.println("Loading Html: numBytes=" + numBytes + ", numZipBytes="
+                    + numZipBytes + ", micros=" + (System.nanoTime() - startNanos) / 1000);
+            htmlEntryCache.put(htmlEntryIndex, html);
             return html;
         }
+
+        /**
+         * Serves the cached HTML if there is any, otherwise inflates the
+         * entry's bytes as the stream is read (without caching them).
+         */
+        public InputStream openHtmlStream() throws IOException {
+            final String html = htmlEntryCache.get(htmlEntryIndex);
+            if (html != null) {
+                return new ByteArrayInputStream(html.getBytes("UTF-8"));
+            }
+            if (presetDictionary != null) {
+                return presetDictionary.openInflaterStream(readZipBytes());
+            }
+            // Same format as StringUtil.zipBytes.
+            return new GZIPInputStream(new ByteArrayInputStream(readZipBytes()));
+        }
+
+        private byte[] readZipBytes() throws IOException {
+            final byte[] zipBytes = new byte[numZipBytes];
+            synchronized (raf) {
+                raf.seek(offset);
+                raf.readFully(zipBytes);
+            }
+            return zipBytes;
+        }
     }
 
 }
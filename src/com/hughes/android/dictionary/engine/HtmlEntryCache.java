@@ -0,0 +1,120 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decompressed HTML of a Dictionary's HtmlEntries, keyed by entry index, LRU
+ * evicted once the (approximate) total size goes over a byte budget.
+ */
+public final class HtmlEntryCache {
+
+    // Roughly what a String and its map entry cost beyond the chars.
+    private static final int PER_ENTRY_OVERHEAD_BYTES = 64;
+
+    private final LinkedHashMap<Integer, String> indexToHtml = new LinkedHashMap<Integer, String>(
+            16, 0.75f, true);
+
+    private long maxBytes;
+    private long bytes = 0;
+
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    public HtmlEntryCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized String get(final int htmlEntryIndex) {
+        final String html = indexToHtml.get(htmlEntryIndex);
+        if (html != null) {
+            ++hitCount;
+        } else {
+            ++missCount;
+        }
+        return html;
+    }
+
+    public synchronized void put(final int htmlEntryIndex, final String html) {
+        final long size = sizeOf(html);
+        if (size > maxBytes) {
+            // Would just flush everything else.
+            return;
+        }
+        final String previous = indexToHtml.put(htmlEntryIndex, html);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += size;
+        evictTo(maxBytes);
+    }
+
+    /**
+     * Evicts least recently used entries until the cache holds at most
+     * targetBytes, e.g. from onTrimMemory.
+     */
+    public synchronized void trimToSize(final long targetBytes) {
+        evictTo(Math.max(0, targetBytes));
+    }
+
+    public synchronized void setMaxBytes(final long maxBytes) {
+        this.maxBytes = maxBytes;
+        evictTo(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("entries=%d, bytes=%d/%d, hits=%d, misses=%d, evictions=%d",
+                indexToHtml.size(), bytes, maxBytes, hitCount, missCount, evictionCount);
+    }
+
+    private void evictTo(final long targetBytes) {
+        final Iterator<Map.Entry<Integer, String>> it = indexToHtml.entrySet().iterator();
+        while (bytes > targetBytes && it.hasNext()) {
+            bytes -= sizeOf(it.next().getValue());
+            it.remove();
+            ++evictionCount;
+        }
+    }
+
+    private static long sizeOf(final String html) {
+        return 2L * html.length() + PER_ENTRY_OVERHEAD_BYTES;
+    }
+
+}
@@ -0,0 +1,214 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Deflate preset dictionary shared by all the HtmlEntries of a Dictionary
+ * (dictFileVersion 7+), trained at build time from the markup that the
+ * entries have in common, so that short entries don't each pay to spell
+ * it out.
+ * <p>
+ * Entries are raw deflate streams (no zlib header), which lets the dictionary
+ * be set up front, also when inflating through a stream.
+ */
+final class HtmlPresetDictionary {
+
+    // Deflate can't refer back further than this anyway.
+    static final int MAX_BYTES = 32 * 1024;
+
+    // Training looks at no more than this many entries, spread evenly.
+    private static final int MAX_TRAINING_ENTRIES = 10000;
+    private static final int MIN_SNIPPET_LENGTH = 3;
+    private static final int MAX_SNIPPET_LENGTH = 128;
+
+    private static final Pattern SNIPPET = Pattern.compile("<[^<>]*>|[^<>]+");
+
+    private final byte[] bytes;
+
+    // Inflaters are expensive to set up, so they're recycled.
+    private final ConcurrentLinkedQueue<Inflater> inflaterPool = new ConcurrentLinkedQueue<Inflater>();
+
+    HtmlPresetDictionary(final byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    HtmlPresetDictionary(final RandomAccessFile raf) throws IOException {
+        bytes = new byte[raf.readInt()];
+        raf.readFully(bytes);
+    }
+
+    void write(final RandomAccessFile raf) throws IOException {
+        raf.writeInt(bytes.length);
+        raf.write(bytes);
+    }
+
+    int size() {
+        return bytes.length;
+    }
+
+    /**
+     * Builds a preset dictionary out of the tags and text snippets that save
+     * the most bytes over all of htmlEntries (count times length), with the
+     * most valuable ones last, where deflate reaches them most cheaply.
+     */
+    static HtmlPresetDictionary train(final List<HtmlEntry> htmlEntries) throws IOException {
+        final Map<String, Integer> snippetToCount = new HashMap<String, Integer>();
+        final int step = Math.max(1, htmlEntries.size() / MAX_TRAINING_ENTRIES);
+        for (int i = 0; i < htmlEntries.size(); i += step) {
+            final Matcher matcher = SNIPPET.matcher(htmlEntries.get(i).getHtml());
+            while (matcher.find()) {
+                final String snippet = matcher.group();
+                if (snippet.length() < MIN_SNIPPET_LENGTH
+                        || snippet.length() > MAX_SNIPPET_LENGTH) {
+                    continue;
+                }
+                final Integer count = snippetToCount.get(snippet);
+                snippetToCount.put(snippet, count == null ? 1 : count + 1);
+            }
+        }
+
+        final List<Map.Entry<String, Integer>> snippets = new ArrayList<Map.Entry<String, Integer>>();
+        for (final Map.Entry<String, Integer> entry : snippetToCount.entrySet()) {
+            if (entry.getValue() > 1) {
+                snippets.add(entry);
+            }
+        }
+        Collections.sort(snippets, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                final long aSaved = (long) a.getValue() * a.getKey().length();
+                final long bSaved = (long) b.getValue() * b.getKey().length();
+                if (aSaved != bSaved) {
+                    return aSaved > bSaved ? -1 : 1;
+                }
+                return a.getKey().compareTo(b.getKey());
+            }
+        });
+
+        final List<byte[]> chosen = new ArrayList<byte[]>();
+        int totalBytes = 0;
+        for (final Map.Entry<String, Integer> entry : snippets) {
+            final byte[] snippetBytes = entry.getKey().getBytes("UTF-8");
+            if (totalBytes + snippetBytes.length > MAX_BYTES) {
+                continue;
+            }
+            chosen.add(snippetBytes);
+            totalBytes += snippetBytes.length;
+        }
+        Collections.reverse(chosen);
+        final ByteArrayOutputStream result = new ByteArrayOutputStream(totalBytes);
+        for (final byte[] snippetBytes : chosen) {
+            result.write(snippetBytes);
+        }
+        System.out.println("Trained HTML preset dictionary: " + snippets.size()
+                + " candidate snippets, " + chosen.size() + " chosen, " + totalBytes + " bytes.");
+        return new HtmlPresetDictionary(result.toByteArray());
+    }
+
+    byte[] deflate(final byte[] input) {
+        final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setDictionary(bytes);
+            deflater.setInput(input);
+            deflater.finish();
+            final ByteArrayOutputStream result = new ByteArrayOutputStream(input.length / 2 + 16);
+            final byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                result.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Inflates all of zipBytes into output, which must be exactly the size
+     * of the original.
+     */
+    void inflate(final byte[] zipBytes, final byte[] output) throws IOException {
+        final Inflater inflater = acquireInflater();
+        try {
+            inflater.setInput(zipBytes);
+            int numBytes = 0;
+            while (numBytes < output.length) {
+                final int inflated = inflater.inflate(output, numBytes, output.length - numBytes);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Truncated HtmlEntry: " + numBytes + " of "
+                            + output.length + " bytes.");
+                }
+                numBytes += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt HtmlEntry: " + e.getMessage());
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    /**
+     * Inflates zipBytes as the stream is read; closing the stream recycles
+     * its Inflater.
+     */
+    InputStream openInflaterStream(final byte[] zipBytes) {
+        final Inflater inflater = acquireInflater();
+        return new InflaterInputStream(new ByteArrayInputStream(zipBytes), inflater) {
+            boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (!closed) {
+                    closed = true;
+                    releaseInflater(inflater);
+                }
+                super.close();
+            }
+        };
+    }
+
+    private Inflater acquireInflater() {
+        Inflater inflater = inflaterPool.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        inflater.setDictionary(bytes);
+        return inflater;
+    }
+
+    private void releaseInflater(final Inflater inflater) {
+        inflater.reset();
+        inflaterPool.offer(inflater);
+    }
+
+}
@@ -0,0 +1,229 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Times matching HtmlEntry rows against multi-word searches the pre-v7 way
+ * (inflate and normalize each entry's HTML) and the v7 way (the stored
+ * search tokens), over the same entries: written to a v7 file and read
+ * back, with the HTML cache emptied before each search, as for a search
+ * that hasn't seen the entries.
+ * <p>
+ * Usage: HtmlSearchBenchmark [file.html ...]; without files, uses synthetic
+ * entries.
+ */
+final class HtmlSearchBenchmark {
+
+    private static final int NUM_SYNTHETIC_ENTRIES = 2000;
+    private static final int NUM_SEARCHES = 50;
+
+    private HtmlSearchBenchmark() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final Dictionary built = new Dictionary("HtmlSearchBenchmark");
+        final EntrySource entrySource = new EntrySource(0, "html", 0);
+        built.sources.add(entrySource);
+        if (args.length > 0) {
+            for (final String arg : args) {
+                final HtmlEntry htmlEntry = new HtmlEntry(entrySource, new File(arg).getName());
+                htmlEntry.html = new String(readFully(new File(arg)), "UTF-8");
+                htmlEntry.addToDictionary(built);
+            }
+        } else {
+            addSyntheticEntries(built, entrySource);
+        }
+        built.indices.add(new Index(built, "EN", "English", Language.en, ":: Lower;", false,
+                new HashSet<String>()));
+
+        final File file = File.createTempFile("HtmlSearchBenchmark", ".quickdic");
+        try {
+            built.write(file);
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                benchmark(new Dictionary(raf));
+            } finally {
+                raf.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void benchmark(final Dictionary dict) {
+        final Index index = dict.indices.get(0);
+        final List<HtmlEntry.Row> rows = new ArrayList<HtmlEntry.Row>();
+        for (int i = 0; i < dict.htmlEntries.size(); ++i) {
+            rows.add(new HtmlEntry.Row(i, i, index));
+        }
+        final List<List<String>> searches = createSearches(dict, index);
+
+        for (int round = 0; round < 2; ++round) {
+            // The first round is warm-up.
+            final boolean print = round == 1;
+
+            final Map<RowMatchType, Integer> textCounts = newCounts();
+            long textNanos = 0;
+            for (final List<String> searchTokens : searches) {
+                final Pattern pattern = orderedMatchPattern(searchTokens);
+                dict.htmlEntryCache.trimToSize(0);
+                final long start = System.nanoTime();
+                for (final HtmlEntry.Row row : rows) {
+                    count(textCounts, row.matchesText(searchTokens, pattern, index.normalizer()));
+                }
+                textNanos += System.nanoTime() - start;
+            }
+
+            final Map<RowMatchType, Integer> tokenCounts = newCounts();
+            long tokenNanos = 0;
+            for (final List<String> searchTokens : searches) {
+                final Pattern pattern = orderedMatchPattern(searchTokens);
+                dict.htmlEntryCache.trimToSize(0);
+                final long start = System.nanoTime();
+                for (final HtmlEntry.Row row : rows) {
+                    count(tokenCounts, row.matches(searchTokens, pattern, index.normalizer(),
+                            false));
+                }
+                tokenNanos += System.nanoTime() - start;
+            }
+
+            if (print) {
+                final long numMatches = (long) rows.size() * searches.size();
+                System.out.println(rows.size() + " entries, " + searches.size() + " searches");
+                System.out.println("Inflated HTML: " + textNanos / 1000000 + "ms, "
+                        + textNanos / 1000 / numMatches + "us/row, " + textCounts);
+                System.out.println("Search tokens: " + tokenNanos / 1000000 + "ms, "
+                        + tokenNanos / 1000 / numMatches + "us/row, " + tokenCounts);
+            }
+        }
+    }
+
+    /**
+     * Pairs of words, half of them next to each other in some entry (so
+     * ordered matches), half of them from anywhere.
+     */
+    private static List<List<String>> createSearches(final Dictionary dict, final Index index) {
+        final Random random = new Random(0);
+        final List<List<String>> result = new ArrayList<List<String>>();
+        while (result.size() < NUM_SEARCHES) {
+            final String[] text = dict.htmlEntries.get(random.nextInt(
+                    dict.htmlEntries.size())).getSearchTokens(index).text().split(" ");
+            if (text.length < 2) {
+                continue;
+            }
+            final int i = random.nextInt(text.length - 1);
+            final String second;
+            if (result.size() % 2 == 0) {
+                second = text[i + 1];
+            } else {
+                final String[] words = dict.htmlEntries.get(random.nextInt(
+                        dict.htmlEntries.size())).getSearchTokens(index).words.split(" ");
+                second = words[random.nextInt(words.length)];
+            }
+            result.add(Arrays.asList(text[i], second));
+        }
+        return result;
+    }
+
+    /** Same as Index.multiWordSearch's. */
+    private static Pattern orderedMatchPattern(final List<String> searchTokens) {
+        final StringBuilder regex = new StringBuilder();
+        for (final String searchToken : searchTokens) {
+            if (regex.length() > 0) {
+                regex.append("[\\s]*");
+            }
+            regex.append(Pattern.quote(searchToken));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static Map<RowMatchType, Integer> newCounts() {
+        final Map<RowMatchType, Integer> counts = new EnumMap<RowMatchType, Integer>(
+                RowMatchType.class);
+        for (final RowMatchType rowMatchType : RowMatchType.values()) {
+            counts.put(rowMatchType, 0);
+        }
+        return counts;
+    }
+
+    private static void count(final Map<RowMatchType, Integer> counts,
+            final RowMatchType rowMatchType) {
+        counts.put(rowMatchType, counts.get(rowMatchType) + 1);
+    }
+
+    static void addSyntheticEntries(final Dictionary dict,
+            final EntrySource entrySource) {
+        final Random random = new Random(0);
+        final String[] vocabulary = new String[2000];
+        for (int i = 0; i < vocabulary.length; ++i) {
+            final StringBuilder word = new StringBuilder();
+            final int numChars = 2 + random.nextInt(8);
+            for (int j = 0; j < numChars; ++j) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            vocabulary[i] = word.toString();
+        }
+        for (int i = 0; i < NUM_SYNTHETIC_ENTRIES; ++i) {
+            final HtmlEntry htmlEntry = new HtmlEntry(entrySource, vocabulary[i
+                    % vocabulary.length]);
+            final StringBuilder html = new StringBuilder();
+            final int numParagraphs = 5 + random.nextInt(30);
+            for (int j = 0; j < numParagraphs; ++j) {
+                html.append("<p class=\"def\"><b>").append(vocabulary[random.nextInt(
+                        vocabulary.length)]).append("</b>");
+                final int numWords = 3 + random.nextInt(12);
+                for (int k = 0; k < numWords; ++k) {
+                    html.append(' ').append(vocabulary[random.nextInt(vocabulary.length)]);
+                }
+                html.append(" &amp; ").append(random.nextInt(1000)).append("</p>\n");
+            }
+            htmlEntry.html = html.toString();
+            htmlEntry.addToDictionary(dict);
+        }
+    }
+
+    static byte[] readFully(final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] bytes = new byte[(int) file.length()];
+            int numBytes = 0;
+            while (numBytes < bytes.length) {
+                final int read = in.read(bytes, numBytes, bytes.length - numBytes);
+                if (read == -1) {
+                    throw new IOException("Short read: " + file);
+                }
+                numBytes += read;
+            }
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+}
@@ -22,13 +22,13 @@ import com.hughes.android.dictionary.DictionaryInfo;
 import com.hughes.android.dictionary.DictionaryInfo.IndexInfo;
 import com.hughes.android.dictionary.engine.RowBase.RowKey;
 import com.hughes.util.CachingList;
-import com.hughes.util.TransformingList;
 import com.hughes.util.raf.RAFList;
 import com.hughes.util.raf.RAFSerializable;
 import com.hughes.util.raf.RAFSerializer;
 import com.hughes.util.raf.SerializableSerializer;
 import com.hughes.util.raf.UniformRAFList;
 import com.ibm.icu.text.Collator;
+import com.ibm.icu.text.RuleBasedCollator;
 import com.ibm.icu.text.Transliterator;
 
 import java.io.IOException;
@@ -37,6 +37,7 @@ import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -50,6 +51,7 @@ import java.util.regex.Pattern;
 public final class Index implements RAFSerializable<Index> {
 
     static final int CACHE_SIZE = 5000;
+    static final int NORMALIZED_TOKEN_CACHE_SIZE = 512;
 
     public final Dictionary dict;
 
@@ -61,7 +63,22 @@ public final class Index implements RAFSerializable<Index> {
     final String normalizerRules;
 
     // Built from the two above.
-    private Transliterator normalizer;
+    private volatile Transliterator normalizer;
+
+    // Whether a search has already put this index's warm-up at the front of
+    // the queue.
+    private final AtomicBoolean warmUpRequested = new AtomicBoolean(false);
+
+    // Compiled once for each thread writing entries; see threadNormalizer.
+    private final ThreadLocal<Transliterator> threadNormalizer = new ThreadLocal<Transliterator>() {
+        @Override
+        protected Transliterator initialValue() {
+            return Transliterator.createFromRules("", normalizerRules, Transliterator.FORWARD);
+        }
+    };
+
+    private final NormalizedTokenCache normalizedTokenCache = new NormalizedTokenCache(
+            NORMALIZED_TOKEN_CACHE_SIZE);
 
     // persisted
     public final List<IndexEntry> sortedIndexEntries;
@@ -78,6 +95,10 @@ public final class Index implements RAFSerializable<Index> {
     // Version 2:
     int mainTokenCount = -1;
 
+    // Set when the index is built with an IndexWriter, which then writes it
+    // instead of sortedIndexEntries and rows.
+    IndexWriter indexWriter = null;
+
     // --------------------------------------------------------------------------
 
     public Index(final Dictionary dict, final String shortName, final String longName,
@@ -97,22 +118,46 @@ public final class Index implements RAFSerializable<Index> {
     }
 
     /**
-     * Deferred initialization because it can be slow.
+     * Deferred initialization because it can be slow: shared with every other
+     * Index using the same rules, and normally already compiled by
+     * TransliteratorManager's warm-up.
      */
-    public synchronized Transliterator normalizer() {
+    public Transliterator normalizer() {
         if (normalizer == null) {
-            normalizer = Transliterator
-                    .createFromRules("", normalizerRules, Transliterator.FORWARD);
+            normalizer = TransliteratorManager.getNormalizer(normalizerRules);
         }
         return normalizer;
     }
 
+    /**
+     * A normalizer just for the calling thread, for serializing entries on
+     * several threads: ICU synchronizes on each Transliterator, so threads
+     * sharing normalizer() would take turns.
+     */
+    Transliterator threadNormalizer() {
+        return threadNormalizer.get();
+    }
+
+    /**
+     * @return whether searching this index can go ahead without compiling its
+     *         normalizer or collator.
+     */
+    public boolean isReady() {
+        return (normalizer != null || TransliteratorManager.isNormalizerReady(normalizerRules))
+                && sortLanguage.isCollatorReady();
+    }
+
     /**
      * Note that using this comparator probably involves doing too many text
      * normalizations.
      */
     public NormalizeComparator getSortComparator() {
-        return new NormalizeComparator(normalizer(), sortLanguage.getCollator());
+        return new NormalizeComparator(normalizer(), sortLanguage.getCollator()) {
+            @Override
+            protected String normalize(final String s) {
+                return normalizeToken(s);
+            }
+        };
     }
 
     public Index(final Dictionary dict, final RandomAccessFile raf) throws IOException {
@@ -143,6 +188,19 @@ public final class Index implements RAFSerializable<Index> {
 
     @Override
     public void write(final RandomAccessFile raf) throws IOException {
+        if (indexWriter != null) {
+            indexWriter.write(raf);
+        } else {
+            write(raf, sortedIndexEntries, rows);
+        }
+    }
+
+    /**
+     * Writes this index with the given entries and rows in place of its own,
+     * which lets IndexWriter stream them from disk.
+     */
+    void write(final RandomAccessFile raf, final Collection<IndexEntry> sortedIndexEntries,
+            final Collection<RowBase> rows) throws IOException {
         raf.writeUTF(shortName);
         raf.writeUTF(longName);
         raf.writeUTF(sortLanguage.getIsoCode());
@@ -153,7 +211,7 @@ public final class Index implements RAFSerializable<Index> {
         }
         RAFList.write(raf, sortedIndexEntries, indexEntrySerializer);
         new SerializableSerializer<Set<String>>().write(raf, stoplist);
-        UniformRAFList.write(raf, (Collection<RowBase>) rows, new RowBase.Serializer(this), 5 /*
+        UniformRAFList.write(raf, rows, new RowBase.Serializer(this), 5 /*
                                                                                                * bytes
                                                                                                * per
                                                                                                * entry
@@ -235,19 +293,26 @@ public final class Index implements RAFSerializable<Index> {
         }
     }
 
-    static final TransformingList.Transformer<IndexEntry, String> INDEX_ENTRY_TO_TOKEN = new TransformingList.Transformer<IndexEntry, String>() {
-        @Override
-        public String transform(IndexEntry t1) {
-            return t1.token;
-        }
-    };
-
+    /**
+     * Normalizes exactToken once and binary searches on the stored normalized
+     * keys, then confirms the match against the raw token.
+     */
     public IndexEntry findExact(final String exactToken) {
-        final int result = Collections.binarySearch(
-                TransformingList.create(sortedIndexEntries, INDEX_ENTRY_TO_TOKEN), exactToken,
-                getSortComparator());
-        if (result >= 0) {
-            return sortedIndexEntries.get(result);
+        if (sortedIndexEntries.isEmpty()) {
+            return null;
+        }
+        // The real normalizer (not the fallback), or the stored keys won't match.
+        final String normalizedToken = normalizeToken(exactToken);
+        final Collator sortCollator = sortLanguage.getCollator();
+        for (int index = findNormalizedInsertionPointIndex(normalizedToken, sortCollator,
+                new AtomicBoolean(false)); index < sortedIndexEntries.size(); ++index) {
+            final IndexEntry indexEntry = sortedIndexEntries.get(index);
+            if (!indexEntry.normalizedToken().equals(normalizedToken)) {
+                break;
+            }
+            if (sortCollator.compare(indexEntry.token, exactToken) == 0) {
+                return indexEntry;
+            }
         }
         return null;
     }
@@ -257,13 +322,16 @@ public final class Index implements RAFSerializable<Index> {
         return index != -1 ? sortedIndexEntries.get(index) : null;
     }
 
-    public int findInsertionPointIndex(String token, final AtomicBoolean interrupted) {
-        token = normalizeToken(token);
+    public int findInsertionPointIndex(final String token, final AtomicBoolean interrupted) {
+        return findNormalizedInsertionPointIndex(normalizeSearchToken(token), searchCollator(),
+                interrupted);
+    }
 
+    private int findNormalizedInsertionPointIndex(final String token,
+            final Comparator<Object> sortCollator, final AtomicBoolean interrupted) {
         int start = 0;
         int end = sortedIndexEntries.size();
 
-        final Collator sortCollator = sortLanguage.getCollator();
         while (start < end) {
             final int mid = (start + end) / 2;
             if (interrupted.get()) {
@@ -271,7 +339,7 @@ public final class Index implements RAFSerializable<Index> {
             }
             final IndexEntry midEntry = sortedIndexEntries.get(mid);
 
-            final int comp = sortCollator.compare(token, midEntry.normalizedToken());
+            final int comp = compareForSearch(sortCollator, token, midEntry.normalizedToken());
             if (comp == 0) {
                 final int result = windBackCase(token, mid, interrupted);
                 return result;
@@ -293,6 +361,18 @@ public final class Index implements RAFSerializable<Index> {
         return result;
     }
 
+    /**
+     * Same ordering as sortCollator.compare(), but lets ICU settle most
+     * binary search probes on primary weights alone.
+     */
+    private static int compareForSearch(final Comparator<Object> sortCollator, final String token1,
+            final String token2) {
+        if (sortCollator instanceof RuleBasedCollator) {
+            return ((RuleBasedCollator) sortCollator).comparePrimaryFirst(token1, token2);
+        }
+        return sortCollator.compare(token1, token2);
+    }
+
     private final int windBackCase(final String token, int result, final AtomicBoolean interrupted) {
         while (result > 0 && sortedIndexEntries.get(result - 1).normalizedToken().equals(token)) {
             --result;
@@ -303,6 +383,22 @@ public final class Index implements RAFSerializable<Index> {
         return result;
     }
 
+    public long getNormalizedTokenCacheHitCount() {
+        return normalizedTokenCache.getHitCount();
+    }
+
+    public long getNormalizedTokenCacheMissCount() {
+        return normalizedTokenCache.getMissCount();
+    }
+
+    /**
+     * Drops the cached normalized tokens, e.g. when the system is low on
+     * memory; they're recomputed as searches need them.
+     */
+    public void clearNormalizedTokenCache() {
+        normalizedTokenCache.clear();
+    }
+
     public IndexInfo getIndexInfo() {
         return new DictionaryInfo.IndexInfo(shortName, sortedIndexEntries.size(), mainTokenCount);
     }
@@ -354,7 +450,7 @@ public final class Index implements RAFSerializable<Index> {
                 return null;
             }
             final String searchToken = searchTokens.get(i);
-            final String normalized = normalizeToken(searchTokens.get(i));
+            final String normalized = normalizeSearchToken(searchTokens.get(i));
             // Normalize them all.
             searchTokens.set(i, normalized);
 
@@ -457,14 +553,62 @@ public final class Index implements RAFSerializable<Index> {
         return result;
     }
 
-    private String normalizeToken(final String searchToken) {
-        if (TransliteratorManager.init(null)) {
-            final Transliterator normalizer = normalizer();
-            return normalizer.transliterate(searchToken);
+    /**
+     * Blocks until the normalizer is compiled, if it isn't yet.
+     */
+    private String normalizeToken(final String token) {
+        String normalized = normalizedTokenCache.get(token);
+        if (normalized == null) {
+            normalized = normalizer().transliterate(token);
+            normalizedTokenCache.put(token, normalized);
+        }
+        return normalized;
+    }
+
+    /**
+     * For searches as the user types, which mustn't wait for the normalizer
+     * to compile: until it has, this falls back to lower-casing.
+     */
+    private String normalizeSearchToken(final String searchToken) {
+        if (normalizer != null || TransliteratorManager.isNormalizerReady(normalizerRules)) {
+            return normalizeToken(searchToken);
         } else {
-            // Do our best since the Transliterators aren't up yet.
+            // Do our best since the Transliterators aren't up yet, and make
+            // sure ours is next in line.
+            requestWarmUp();
             return searchToken.toLowerCase();
         }
     }
 
+    /**
+     * Likewise, the sort collator once it's compiled, and until then plain
+     * String order, which is only roughly where things are.
+     */
+    private Comparator<Object> searchCollator() {
+        if (sortLanguage.isCollatorReady()) {
+            return sortLanguage.getCollator();
+        }
+        requestWarmUp();
+        return FALLBACK_SEARCH_ORDER;
+    }
+
+    private void requestWarmUp() {
+        // The warm-up compiles the normalizer and the collator, and once it's
+        // queued at PRIORITY_NOW it's next in line until it's done.
+        if (warmUpRequested.compareAndSet(false, true)) {
+            TransliteratorManager.warmUp(this, TransliteratorManager.PRIORITY_NOW, null);
+        }
+    }
+
+    void onWarmUpFailed() {
+        warmUpRequested.set(false);
+    }
+
+    private static final Comparator<Object> FALLBACK_SEARCH_ORDER = new Comparator<Object>() {
+        @Override
+        public int compare(final Object a, final Object b) {
+            return ((String) a).compareTo((String) b);
+        }
+    };
+
 }
@@ -0,0 +1,462 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine;
+
+import com.hughes.android.dictionary.engine.Index.IndexEntry;
+import com.hughes.android.util.BufferedRandomAccessFile;
+import com.hughes.android.util.ExternalSorter;
+import com.ibm.icu.text.Collator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Builds an Index without holding its IndexEntries and rows in memory, for
+ * dictionaries too big for that.
+ * <p>
+ * Each (token, entry) goes to an ExternalSorter as a record keyed by the
+ * collation keys of the normalized and raw token, so it's spilled to sorted
+ * runs on disk as it fills up. When the index is written, the merged records
+ * are grouped by token into IndexEntries and 5-byte rows, spooled to temp
+ * files (the token rows' types are patched in once it's known whether they
+ * have a main entry), and then streamed into the file. Memory use is
+ * maxRowsInMemory records, whatever the size of the index.
+ * <p>
+ * Rows under a token are ordered by EntryTypeName, then entry index, with
+ * exact duplicates dropped. Entries must already be in the dictionary. An
+ * index can only be written once this way.
+ */
+public final class IndexWriter {
+
+    public static final int DEFAULT_MAX_ROWS_IN_MEMORY = 500000;
+
+    private static final int SPOOL_BUFFER_BYTES = 64 * 1024;
+    private static final int ROW_BYTES = 5;
+
+    // RowBase.Serializer's row types.
+    private static final byte PAIR_ROW = 0;
+    private static final byte MAIN_TOKEN_ROW = 1;
+    private static final byte TEXT_ROW = 2;
+    private static final byte TOKEN_ROW = 3;
+    private static final byte HTML_ROW = 4;
+
+    private static final EntryTypeName[] ENTRY_TYPE_NAMES = EntryTypeName.values();
+
+    private final Index index;
+    private final File tempDir;
+    private final Collator collator;
+    private final ExternalSorter<IndexRow> sorter;
+
+    // The last token added, which is usually the next one too.
+    private String lastToken = null;
+    private IndexRow lastRow = null;
+
+    public IndexWriter(final Index index, final int maxRowsInMemory, final File tempDir) {
+        if (!index.sortedIndexEntries.isEmpty() || !index.rows.isEmpty()
+                || index.indexWriter != null) {
+            throw new IllegalStateException("Index already has rows: " + index.shortName);
+        }
+        this.index = index;
+        this.tempDir = tempDir;
+        collator = index.sortLanguage.getCollator();
+        sorter = new ExternalSorter<IndexRow>(IndexRow.COMPARATOR, IndexRow.CODEC,
+                maxRowsInMemory, tempDir);
+        index.indexWriter = this;
+    }
+
+    public IndexWriter(final Index index) {
+        this(index, DEFAULT_MAX_ROWS_IN_MEMORY, null);
+    }
+
+    /**
+     * Files entry under token. Stoplisted tokens are skipped, unless
+     * entryTypeName overrides the stoplist.
+     */
+    public void addEntry(final String token, final EntryTypeName entryTypeName,
+            final AbstractEntry entry) throws IOException {
+        if (index.stoplist.contains(token) && !entryTypeName.overridesStopList) {
+            return;
+        }
+        if (entry.index() == -1) {
+            throw new IllegalArgumentException("Entry isn't in the dictionary: " + entry);
+        }
+        final byte rowType;
+        if (entry instanceof PairEntry) {
+            rowType = PAIR_ROW;
+        } else if (entry instanceof TextEntry) {
+            rowType = TEXT_ROW;
+        } else if (entry instanceof HtmlEntry) {
+            rowType = HTML_ROW;
+        } else {
+            throw new IllegalArgumentException("Unknown entry type: " + entry);
+        }
+        if (!token.equals(lastToken)) {
+            final String normalizedToken = index.normalizer().transliterate(token);
+            lastRow = new IndexRow(collator.getCollationKey(normalizedToken).toByteArray(),
+                    collator.getCollationKey(token).toByteArray(), token, normalizedToken,
+                    (byte) 0, (byte) 0, 0);
+            lastToken = token;
+        }
+        // Shares the keys and strings with the last row for this token.
+        sorter.add(new IndexRow(lastRow.normalizedKey, lastRow.tokenKey, token,
+                lastRow.normalizedToken, (byte) entryTypeName.ordinal(), rowType, entry.index()));
+    }
+
+    public long numRowsAdded() {
+        return sorter.size();
+    }
+
+    /**
+     * Deletes the sorted runs, if the index won't be written after all.
+     */
+    public void discard() {
+        sorter.discard();
+    }
+
+    void write(final RandomAccessFile raf) throws IOException {
+        final File entriesFile = File.createTempFile("indexEntries", ".tmp", tempDir);
+        final File rowsFile = File.createTempFile("indexRows", ".tmp", tempDir);
+        try {
+            final long startMillis = System.currentTimeMillis();
+            final int[] counts = spool(entriesFile, rowsFile);
+            System.out.printf("Index %s: %d rows added, %d entries and %d rows, %dms.\n",
+                    index.shortName, sorter.size(), counts[0], counts[1],
+                    System.currentTimeMillis() - startMillis);
+            index.write(raf, new SpooledIndexEntries(entriesFile, counts[0]),
+                    new SpooledRows(rowsFile, counts[1]));
+        } finally {
+            entriesFile.delete();
+            rowsFile.delete();
+        }
+    }
+
+    /**
+     * Groups the sorted records into IndexEntries and rows, and sets the
+     * index's mainTokenCount.
+     *
+     * @return the number of IndexEntries and rows spooled.
+     */
+    private int[] spool(final File entriesFile, final File rowsFile) throws IOException {
+        final ExternalSorter.Records<IndexRow> records = sorter.sort();
+        final DataOutputStream entriesOut = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(entriesFile), SPOOL_BUFFER_BYTES));
+        final RandomAccessFile rowsOut = new BufferedRandomAccessFile(rowsFile, "rw");
+        try {
+            int numEntries = 0;
+            int numRows = 0;
+            int mainTokenCount = 0;
+
+            IndexRow first = null;
+            IndexRow last = null;
+            boolean hasMainEntry = false;
+            final List<Integer> htmlEntryIndices = new ArrayList<Integer>();
+            while (true) {
+                final IndexRow row = records.hasNext() ? records.next() : null;
+                if (first != null && (row == null || !row.token.equals(first.token))) {
+                    final int tokenRowIndex = numRows - last.numRowsInToken - 1;
+                    if (hasMainEntry) {
+                        rowsOut.seek((long) tokenRowIndex * ROW_BYTES);
+                        rowsOut.writeByte(MAIN_TOKEN_ROW);
+                        rowsOut.seek((long) numRows * ROW_BYTES);
+                        ++mainTokenCount;
+                    }
+                    entriesOut.writeUTF(first.token);
+                    entriesOut.writeUTF(first.normalizedToken);
+                    entriesOut.writeInt(tokenRowIndex);
+                    entriesOut.writeInt(last.numRowsInToken);
+                    entriesOut.writeInt(htmlEntryIndices.size());
+                    for (final int htmlEntryIndex : htmlEntryIndices) {
+                        entriesOut.writeInt(htmlEntryIndex);
+                    }
+                    ++numEntries;
+                    first = null;
+                }
+                if (row == null) {
+                    break;
+                }
+                if (first == null) {
+                    first = row;
+                    last = null;
+                    hasMainEntry = false;
+                    htmlEntryIndices.clear();
+                    rowsOut.writeByte(TOKEN_ROW);
+                    rowsOut.writeInt(numEntries);
+                    ++numRows;
+                } else if (row.entryTypeName == last.entryTypeName && row.rowType == last.rowType
+                        && row.referenceIndex == last.referenceIndex) {
+                    continue;
+                }
+                row.numRowsInToken = last == null ? 1 : last.numRowsInToken + 1;
+                last = row;
+                hasMainEntry |= ENTRY_TYPE_NAMES[row.entryTypeName].mainWord;
+                if (row.rowType == HTML_ROW && !htmlEntryIndices.contains(row.referenceIndex)) {
+                    htmlEntryIndices.add(row.referenceIndex);
+                }
+                rowsOut.writeByte(row.rowType);
+                rowsOut.writeInt(row.referenceIndex);
+                ++numRows;
+            }
+            index.mainTokenCount = mainTokenCount;
+            return new int[] { numEntries, numRows };
+        } finally {
+            records.close();
+            entriesOut.close();
+            rowsOut.close();
+        }
+    }
+
+    private static DataInputStream openSpool(final File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                SPOOL_BUFFER_BYTES));
+    }
+
+    /**
+     * Read once, front to back, by RAFList.write.
+     */
+    private final class SpooledIndexEntries extends AbstractCollection<IndexEntry> {
+        final File file;
+        final int size;
+
+        SpooledIndexEntries(final File file, final int size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<IndexEntry> iterator() {
+            return new SpoolIterator<IndexEntry>(file, size) {
+                @Override
+                IndexEntry read(final DataInputStream in, final int i) throws IOException {
+                    final String token = in.readUTF();
+                    final IndexEntry indexEntry = new IndexEntry(index, token, in.readUTF(),
+                            in.readInt(), in.readInt());
+                    final int numHtmlEntries = in.readInt();
+                    for (int h = 0; h < numHtmlEntries; ++h) {
+                        indexEntry.htmlEntries.add(index.dict.htmlEntries.get(in.readInt()));
+                    }
+                    return indexEntry;
+                }
+            };
+        }
+    }
+
+    /**
+     * Read once, front to back, by UniformRAFList.write.
+     */
+    private final class SpooledRows extends AbstractCollection<RowBase> {
+        final File file;
+        final int size;
+
+        SpooledRows(final File file, final int size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<RowBase> iterator() {
+            return new SpoolIterator<RowBase>(file, size) {
+                @Override
+                RowBase read(final DataInputStream in, final int i) throws IOException {
+                    final byte rowType = in.readByte();
+                    final int referenceIndex = in.readInt();
+                    switch (rowType) {
+                        case PAIR_ROW:
+                            return new PairEntry.Row(referenceIndex, i, index);
+                        case MAIN_TOKEN_ROW:
+                        case TOKEN_ROW:
+                            return new TokenRow(referenceIndex, i, index,
+                                    rowType == MAIN_TOKEN_ROW);
+                        case TEXT_ROW:
+                            return new TextEntry.Row(referenceIndex, i, index);
+                        case HTML_ROW:
+                            return new HtmlEntry.Row(referenceIndex, i, index);
+                        default:
+                            throw new IOException("Invalid rowType:" + rowType);
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Closes the file once the last element's been read.
+     */
+    private abstract static class SpoolIterator<T> implements Iterator<T> {
+        final DataInputStream in;
+        final int size;
+        int next = 0;
+
+        SpoolIterator(final File file, final int size) {
+            this.size = size;
+            try {
+                in = openSpool(file);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to open: " + file, e);
+            }
+        }
+
+        abstract T read(DataInputStream in, int i) throws IOException;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                final T result = read(in, next);
+                if (++next == size) {
+                    in.close();
+                }
+                return result;
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read spooled index", e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * One (token, entry), as sorted.
+     */
+    static final class IndexRow {
+        final byte[] normalizedKey;
+        final byte[] tokenKey;
+        final String token;
+        final String normalizedToken;
+        final byte entryTypeName;
+        final byte rowType;
+        final int referenceIndex;
+
+        // Counted while grouping.
+        int numRowsInToken;
+
+        IndexRow(final byte[] normalizedKey, final byte[] tokenKey, final String token,
+                final String normalizedToken, final byte entryTypeName, final byte rowType,
+                final int referenceIndex) {
+            this.normalizedKey = normalizedKey;
+            this.tokenKey = tokenKey;
+            this.token = token;
+            this.normalizedToken = normalizedToken;
+            this.entryTypeName = entryTypeName;
+            this.rowType = rowType;
+            this.referenceIndex = referenceIndex;
+        }
+
+        /**
+         * What NormalizeComparator does, then the raw token to keep tokens
+         * that collate the same apart, then the row.
+         */
+        static final Comparator<IndexRow> COMPARATOR = new Comparator<IndexRow>() {
+            @Override
+            public int compare(IndexRow a, IndexRow b) {
+                int result = compareBytes(a.normalizedKey, b.normalizedKey);
+                if (result == 0) {
+                    result = compareBytes(a.tokenKey, b.tokenKey);
+                }
+                if (result == 0) {
+                    result = a.token.compareTo(b.token);
+                }
+                if (result == 0) {
+                    result = a.entryTypeName - b.entryTypeName;
+                }
+                if (result == 0) {
+                    result = a.rowType - b.rowType;
+                }
+                if (result == 0) {
+                    result = a.referenceIndex < b.referenceIndex ? -1
+                            : (a.referenceIndex == b.referenceIndex ? 0 : 1);
+                }
+                return result;
+            }
+        };
+
+        static final ExternalSorter.Codec<IndexRow> CODEC = new ExternalSorter.Codec<IndexRow>() {
+            @Override
+            public void write(IndexRow record, DataOutput out) throws IOException {
+                out.writeShort(record.normalizedKey.length);
+                out.write(record.normalizedKey);
+                out.writeShort(record.tokenKey.length);
+                out.write(record.tokenKey);
+                out.writeUTF(record.token);
+                final boolean hasNormalizedForm = !record.token.equals(record.normalizedToken);
+                out.writeBoolean(hasNormalizedForm);
+                if (hasNormalizedForm) {
+                    out.writeUTF(record.normalizedToken);
+                }
+                out.writeByte(record.entryTypeName);
+                out.writeByte(record.rowType);
+                out.writeInt(record.referenceIndex);
+            }
+
+            @Override
+            public IndexRow read(DataInput in) throws IOException {
+                final byte[] normalizedKey = new byte[in.readUnsignedShort()];
+                in.readFully(normalizedKey);
+                final byte[] tokenKey = new byte[in.readUnsignedShort()];
+                in.readFully(tokenKey);
+                final String token = in.readUTF();
+                final String normalizedToken = in.readBoolean() ? in.readUTF() : token;
+                return new IndexRow(normalizedKey, tokenKey, token, normalizedToken,
+                        in.readByte(), in.readByte(), in.readInt());
+            }
+        };
+
+        static int compareBytes(final byte[] a, final byte[] b) {
+            final int length = Math.min(a.length, b.length);
+            for (int i = 0; i < length; ++i) {
+                final int result = (a[i] & 0xff) - (b[i] & 0xff);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return a.length - b.length;
+        }
+    }
+
+}
@@ -15,6 +15,7 @@
 package com.hughes.android.dictionary.engine;
 
 import com.hughes.android.dictionary.R;
+import com.ibm.icu.text.Collator;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
@@ -207,6 +208,8 @@ public class Language {
     final String isoCode;
     private final Locale locale;
 
+    private volatile Collator collator;
+
     private Language(final Locale locale, final String isoCode) {
         this.locale = locale;
         this.isoCode = isoCode;
@@ -221,6 +224,26 @@ public class Language {
     public String getIsoCode() {
         return isoCode;
     }
+
+    /**
+     * Frozen, so it can be shared by the search and warm-up threads.
+     */
+    public Collator getCollator() {
+        if (collator == null) {
+            synchronized (this) {
+                if (collator == null) {
+                    final Collator newCollator = Collator.getInstance(locale);
+                    newCollator.setStrength(Collator.IDENTICAL);
+                    collator = newCollator.freeze();
+                }
+            }
+        }
+        return collator;
+    }
+
+    public boolean isCollatorReady() {
+        return collator != null;
+    }
     
     String normalizeText(String text) {
         text = text.toLowerCase(locale);
@@ -271,7 +294,12 @@ public class Language {
     // ----------------------------------------------------------------
 
     public static synchronized Language lookup(final String isoCode) {
-        Language lang = registry.get(isoCode.toLowerCase());
+        // Languages register under the code they were created with, so check
+        // that first; otherwise every lookup makes (and warms up) a new one.
+        Language lang = registry.get(isoCode);
+        if (lang == null) {
+            lang = registry.get(isoCode.toLowerCase());
+        }
         if (lang == null) {
             lang = new Language(new Locale(isoCode), isoCode);
         }
@@ -31,8 +31,8 @@ public class NormalizeComparator implements Comparator<String> {
 
     @Override
     public int compare(final String s1, final String s2) {
-        final String n1 = normalizer.transform(s1);
-        final String n2 = normalizer.transform(s2);
+        final String n1 = normalize(s1);
+        final String n2 = normalize(s2);
         final int cn = comparator.compare(n1, n2);
         if (cn != 0) {
             return cn;
@@ -40,4 +40,8 @@ public class NormalizeComparator implements Comparator<String> {
         return comparator.compare(s1, s2);
     }
 
+    protected String normalize(final String s) {
+        return normalizer.transform(s);
+    }
+
 }
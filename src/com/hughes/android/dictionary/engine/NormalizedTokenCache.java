@@ -0,0 +1,107 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded memo of raw token -> normalized token, so that repeated (and
+ * backspaced) queries don't go back into ICU. The entries are spread over a
+ * few independently locked LRU stripes so the search thread and the UI thread
+ * don't contend on a single lock.
+ */
+final class NormalizedTokenCache {
+
+    private static final int NUM_STRIPES = 8;
+
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    NormalizedTokenCache(final int maxSize) {
+        final int stripeSize = Math.max(1, maxSize / NUM_STRIPES);
+        for (int i = 0; i < NUM_STRIPES; ++i) {
+            stripes[i] = new Stripe(stripeSize);
+        }
+    }
+
+    /**
+     * @return the cached normalized form of token, or null if it isn't cached.
+     */
+    String get(final String token) {
+        final Stripe stripe = stripeFor(token);
+        final String normalized;
+        synchronized (stripe) {
+            normalized = stripe.get(token);
+        }
+        if (normalized != null) {
+            hitCount.incrementAndGet();
+        } else {
+            missCount.incrementAndGet();
+        }
+        return normalized;
+    }
+
+    void put(final String token, final String normalized) {
+        final Stripe stripe = stripeFor(token);
+        synchronized (stripe) {
+            stripe.put(token, normalized);
+        }
+    }
+
+    void clear() {
+        for (final Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d, misses=%d", hitCount.get(), missCount.get());
+    }
+
+    private Stripe stripeFor(final String token) {
+        return stripes[(token.hashCode() & 0x7fffffff) % NUM_STRIPES];
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Stripe extends LinkedHashMap<String, String> {
+        private final int maxSize;
+
+        Stripe(final int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+}
@@ -18,6 +18,7 @@ import com.hughes.util.raf.RAFListSerializer;
 import com.hughes.util.raf.RAFSerializable;
 import com.ibm.icu.text.Transliterator;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
@@ -51,14 +52,14 @@ public class PairEntry extends AbstractEntry implements RAFSerializable<PairEntr
     }
 
     @Override
-    public void write(RandomAccessFile raf) throws IOException {
-        super.write(raf);
+    void write(final DataOutput out) throws IOException {
+        super.write(out);
         // TODO: this could be a short.
-        raf.writeInt(pairs.size());
+        out.writeInt(pairs.size());
         for (int i = 0; i < pairs.size(); ++i) {
             assert pairs.get(i).lang1.length() > 0;
-            raf.writeUTF(pairs.get(i).lang1);
-            raf.writeUTF(pairs.get(i).lang2);
+            out.writeUTF(pairs.get(i).lang1);
+            out.writeUTF(pairs.get(i).lang2);
         }
     }
 
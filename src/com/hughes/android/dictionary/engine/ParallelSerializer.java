@@ -0,0 +1,186 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine;
+
+import com.hughes.util.raf.RAFListSerializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Serializes (and compresses, for HtmlEntries) a list's elements on worker
+ * threads, a chunk at a time into in-memory buffers, a few chunks ahead of
+ * RAFList.write, whose calls to write just copy out the next element's
+ * bytes. RAFList.write still lays out the list and its offsets itself, so
+ * the file is byte for byte what serializing on the writing thread gives.
+ * <p>
+ * Only for elements whose bytes don't depend on where in the file they end
+ * up, which rules out anything with nested RAFLists (Index). It only
+ * writes; forWriting gives RAFList.write a serializer that reads with the
+ * list's own.
+ */
+final class ParallelSerializer<T> {
+
+    interface Writer<T> {
+        void write(DataOutput out, T t) throws IOException;
+    }
+
+    static final int CHUNK_SIZE = 256;
+
+    private final List<T> list;
+    private final Writer<T> writer;
+    private final ExecutorService executor;
+    private final int maxChunksInFlight;
+
+    // Submitted, in list order.
+    private final LinkedList<Future<Chunk>> inFlight = new LinkedList<Future<Chunk>>();
+    private int nextToSubmit = 0;
+
+    // The chunk being copied out, and the next element in it.
+    private Chunk chunk = null;
+    private int chunkPosition = 0;
+    // How many elements have been written, i.e. the list position of the
+    // next one.
+    private int numWritten = 0;
+
+    ParallelSerializer(final List<T> list, final Writer<T> writer,
+            final ExecutorService executor, final int maxChunksInFlight) {
+        this.list = list;
+        this.writer = writer;
+        this.executor = executor;
+        this.maxChunksInFlight = maxChunksInFlight;
+    }
+
+    /**
+     * A serializer for RAFList.write that writes through this, and reads
+     * with reader.
+     */
+    RAFListSerializer<T> forWriting(final RAFListSerializer<T> reader) {
+        return new RAFListSerializer<T>() {
+            @Override
+            public T read(final RandomAccessFile raf, final int readIndex) throws IOException {
+                return reader.read(raf, readIndex);
+            }
+
+            @Override
+            public void write(final RandomAccessFile raf, final T t) throws IOException {
+                ParallelSerializer.this.write(raf, t);
+            }
+        };
+    }
+
+    /**
+     * Writes the next element's bytes. Calls must go through the list in
+     * order, as RAFList.write does; t is only there to match
+     * RAFListSerializer, and isn't compared, since e.g. a CachingList can
+     * give back a different but equal object for the same position.
+     */
+    void write(final RandomAccessFile raf, final T t) throws IOException {
+        if (chunk == null || chunkPosition == chunk.ends.length) {
+            submitAhead();
+            if (inFlight.isEmpty()) {
+                throw new IllegalStateException("More elements written than in the list.");
+            }
+            chunk = get(inFlight.removeFirst());
+            chunkPosition = 0;
+            if (chunk.start != numWritten) {
+                throw new IllegalStateException("Chunk at " + chunk.start + " written at "
+                        + numWritten);
+            }
+            // Keep the workers busy while this one's copied out.
+            submitAhead();
+        }
+        final int start = chunkPosition == 0 ? 0 : chunk.ends[chunkPosition - 1];
+        raf.write(chunk.bytes, start, chunk.ends[chunkPosition] - start);
+        ++chunkPosition;
+        ++numWritten;
+    }
+
+    private void submitAhead() {
+        while (inFlight.size() < maxChunksInFlight && nextToSubmit < list.size()) {
+            final int end = Math.min(list.size(), nextToSubmit + CHUNK_SIZE);
+            // Fetched here, since list (e.g. a CachingList) might not be
+            // thread safe.
+            final int start = nextToSubmit;
+            final List<T> elements = new ArrayList<T>(list.subList(start, end));
+            inFlight.add(executor.submit(new Callable<Chunk>() {
+                @Override
+                public Chunk call() throws IOException {
+                    return serialize(start, elements);
+                }
+            }));
+            nextToSubmit = end;
+        }
+    }
+
+    private Chunk serialize(final int start, final List<T> elements) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final int[] ends = new int[elements.size()];
+        for (int i = 0; i < elements.size(); ++i) {
+            writer.write(out, elements.get(i));
+            ends[i] = out.size();
+        }
+        out.flush();
+        return new Chunk(start, bytes.toByteArray(), ends);
+    }
+
+    private Chunk get(final Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted serializing entries.");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            final IOException ioe = new IOException("Failed to serialize entries");
+            ioe.initCause(cause);
+            throw ioe;
+        }
+    }
+
+    private static final class Chunk {
+        // The list position of the first element.
+        final int start;
+        final byte[] bytes;
+        // Where each element's bytes end.
+        final int[] ends;
+
+        Chunk(final int start, final byte[] bytes, final int[] ends) {
+            this.start = start;
+            this.bytes = bytes;
+            this.ends = ends;
+        }
+    }
+
+}
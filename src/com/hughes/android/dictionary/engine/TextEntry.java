@@ -18,6 +18,7 @@ import com.hughes.util.raf.RAFListSerializer;
 import com.hughes.util.raf.RAFSerializable;
 import com.ibm.icu.text.Transliterator;
 
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.RandomAccessFile;
@@ -36,9 +37,9 @@ public class TextEntry extends AbstractEntry implements RAFSerializable<TextEntr
     }
 
     @Override
-    public void write(RandomAccessFile raf) throws IOException {
-        super.write(raf);
-        raf.writeUTF(text);
+    void write(final DataOutput out) throws IOException {
+        super.write(out);
+        out.writeUTF(text);
     }
 
     static final class Serializer implements RAFListSerializer<TextEntry> {
@@ -79,6 +80,11 @@ public class TextEntry extends AbstractEntry implements RAFSerializable<TextEntr
             super(raf, thisRowIndex, index);
         }
 
+        Row(final int referenceIndex, final int thisRowIndex,
+                final Index index) {
+            super(referenceIndex, thisRowIndex, index);
+        }
+
         public TextEntry getEntry() {
             return index.dict.textEntries.get(referenceIndex);
         }
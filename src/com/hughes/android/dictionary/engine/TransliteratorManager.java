@@ -14,57 +14,227 @@
 
 package com.hughes.android.dictionary.engine;
 
+import com.hughes.android.util.ZipEntryRandomAccessFile;
 import com.ibm.icu.text.Transliterator;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Compiles transliterators and collators in the background, on a small pool
+ * of low-priority threads, most urgent work first.
+ * <p>
+ * Normalizers are shared by rules, so an Index that's opened after its rules
+ * have been warmed up never compiles anything itself.
+ */
 public class TransliteratorManager {
 
-    private static boolean starting = false;
-    private static boolean ready = false;
+    /** For the Index the user is looking at right now. */
+    public static final int PRIORITY_NOW = 0;
+    /** For the other indices of the open Dictionary. */
+    public static final int PRIORITY_SOON = 1;
+    /** For dictionaries the user is likely to open next (plus their rank). */
+    public static final int PRIORITY_LATER = 2;
 
-    // Whom to notify when we're all set up and ready to go.
-    private static List<Callback> callbacks = new ArrayList<TransliteratorManager.Callback>();
+    // How far down dictionaryFilesOrdered to warm up.
+    private static final int MAX_WARM_UP_DICTIONARIES = 3;
 
-    public static synchronized boolean init(final Callback callback) {
-        if (ready) {
-            return true;
+    private static final ConcurrentMap<String, FutureTask<Transliterator>> normalizers =
+            new ConcurrentHashMap<String, FutureTask<Transliterator>>();
+
+    private static final AtomicLong nextSequence = new AtomicLong();
+
+    private static final ThreadPoolExecutor warmUpExecutor;
+    static {
+        final int numThreads = Math.max(1,
+                Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+        warmUpExecutor = new ThreadPoolExecutor(numThreads, numThreads, 10, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "TransliteratorWarmUp");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        warmUpExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the compiled normalizer for these rules, compiling it on the
+     * calling thread if nobody has started on it yet, or waiting for the
+     * thread that has.
+     */
+    public static Transliterator getNormalizer(final String normalizerRules) {
+        FutureTask<Transliterator> future = normalizers.get(normalizerRules);
+        if (future == null) {
+            final FutureTask<Transliterator> newFuture = new FutureTask<Transliterator>(
+                    new Callable<Transliterator>() {
+                        @Override
+                        public Transliterator call() {
+                            final long startMillis = System.currentTimeMillis();
+                            final Transliterator result = Transliterator.createFromRules("",
+                                    normalizerRules, Transliterator.FORWARD);
+                            System.out.println("Compiling normalizer took: "
+                                    + (System.currentTimeMillis() - startMillis));
+                            return result;
+                        }
+                    });
+            future = normalizers.putIfAbsent(normalizerRules, newFuture);
+            if (future == null) {
+                future = newFuture;
+            }
         }
-        if (callback != null) {
-            callbacks.add(callback);
+        // No-op if it's already been run (or is running).
+        future.run();
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            normalizers.remove(normalizerRules, future);
+            throw new RuntimeException(e.getCause());
         }
-        if (!starting) {
-            starting = true;
-            new Thread(init).start();
+    }
+
+    public static boolean isNormalizerReady(final String normalizerRules) {
+        final FutureTask<Transliterator> future = normalizers.get(normalizerRules);
+        return future != null && future.isDone();
+    }
+
+    /**
+     * Schedules compilation of index's normalizer and collator.
+     *
+     * @return true if they're already compiled, in which case callback isn't
+     *         called; otherwise callback (if any) is called from the warm-up
+     *         thread once it's over, even if compiling failed.
+     */
+    public static boolean warmUp(final Index index, final int priority, final Callback callback) {
+        if (index.isReady()) {
+            return true;
         }
+        warmUpExecutor.execute(new WarmUpTask(priority, false, new Runnable() {
+            @Override
+            public void run() {
+                boolean warmedUp = false;
+                try {
+                    warmUpNow(index.normalizerRules, index.sortLanguage);
+                    warmedUp = true;
+                } finally {
+                    if (!warmedUp) {
+                        // So the next search asks again.
+                        index.onWarmUpFailed();
+                    }
+                    if (callback != null) {
+                        callback.onTransliteratorReady();
+                    }
+                }
+            }
+        }));
         return false;
     }
 
-    private static final Runnable init = new Runnable() {
+    /**
+     * Replaces any pending dictionary warm-ups with ones for the first few of
+     * dictionaryFiles, which should be in the user's order, most likely first.
+     */
+    public static void warmUpDictionaries(final List<File> dictionaryFiles) {
+        cancelDictionaryWarmUps();
+        for (int i = 0; i < dictionaryFiles.size() && i < MAX_WARM_UP_DICTIONARIES; ++i) {
+            final File dictionaryFile = dictionaryFiles.get(i);
+            warmUpExecutor.execute(new WarmUpTask(PRIORITY_LATER + i, true, new Runnable() {
+                @Override
+                public void run() {
+                    warmUpDictionary(dictionaryFile);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Drops the dictionary warm-ups that haven't started yet. Work that has
+     * already started runs to completion, since compilation can't be
+     * interrupted.
+     */
+    public static void cancelDictionaryWarmUps() {
+        final Iterator<Runnable> it = warmUpExecutor.getQueue().iterator();
+        while (it.hasNext()) {
+            if (((WarmUpTask) it.next()).cancellable) {
+                it.remove();
+            }
+        }
+    }
+
+    private static void warmUpDictionary(final File dictionaryFile) {
+        RandomAccessFile raf = null;
+        try {
+            raf = ZipEntryRandomAccessFile.open(dictionaryFile);
+            final Dictionary dictionary = new Dictionary(raf);
+            for (final Index index : dictionary.indices) {
+                warmUpNow(index.normalizerRules, index.sortLanguage);
+            }
+        } catch (IOException e) {
+            System.out.println("Unable to warm up dictionary: " + dictionaryFile + ", " + e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    System.out.println("Unable to close: " + dictionaryFile);
+                }
+            }
+        }
+    }
+
+    private static void warmUpNow(final String normalizerRules, final Language language) {
+        getNormalizer(normalizerRules);
+        language.getCollator();
+    }
+
+    private static final class WarmUpTask implements Runnable, Comparable<WarmUpTask> {
+        final int priority;
+        final long sequence = nextSequence.getAndIncrement();
+        final boolean cancellable;
+        final Runnable work;
+
+        WarmUpTask(final int priority, final boolean cancellable, final Runnable work) {
+            this.priority = priority;
+            this.cancellable = cancellable;
+            this.work = work;
+        }
+
         @Override
         public void run() {
-            System.out.println("Starting Transliterator load.");
-            final String transliterated =
-                    Transliterator
-                            .createFromRules(
-                                    "",
-                                    ":: Any-Latin; :: Lower; :: NFD; :: [:Nonspacing Mark:] Remove; :: NFC ;",
-                                    Transliterator.FORWARD).transliterate("Îñţérñåţîöñåļîžåţîờñ");
-            if (!"internationalization".equals(transliterated)) {
-                System.out.println("Wrong transliteratation: " + transliterated);
+            try {
+                work.run();
+            } catch (RuntimeException e) {
+                System.out.println("Warm-up failed: " + e);
             }
+        }
 
-            final List<Callback> callbacks = new ArrayList<TransliteratorManager.Callback>();
-            synchronized (TransliteratorManager.class) {
-                callbacks.addAll(TransliteratorManager.callbacks);
-                ready = true;
-            }
-            for (final Callback callback : callbacks) {
-                callback.onTransliteratorReady();
+        @Override
+        public int compareTo(final WarmUpTask other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
             }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
         }
-    };
+    }
 
     public interface Callback {
         void onTransliteratorReady();
@@ -62,6 +62,12 @@ public abstract class AbstractEntry {
             public AbstractEntry create(Dictionary dictionary, EntrySource entrySource, DataInputStream in) throws IOException {
                 return new PairEntry(entrySource, in);
             }
+        },
+        HTML {
+            @Override
+            public AbstractEntry create(Dictionary dictionary, EntrySource entrySource, DataInputStream in) throws IOException {
+                return new HtmlEntry(entrySource, in);
+            }
         };
         
         public abstract AbstractEntry create(Dictionary dictionary, EntrySource entrySource, DataInputStream in) throws IOException;
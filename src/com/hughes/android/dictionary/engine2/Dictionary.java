@@ -15,7 +15,6 @@
 package com.hughes.android.dictionary.engine2;
 
 import com.hughes.android.dictionary.DictionaryInfo;
-import com.hughes.android.dictionary.engine.PairEntry;
 import com.hughes.util.CachingList;
 import com.hughes.util.raf.RAFList;
 import com.hughes.util.raf.RAFListSerializer;
@@ -32,7 +31,7 @@ import java.util.List;
 
 public class Dictionary {
 
-    static final int CURRENT_DICT_VERSION = 7;
+    static final int CURRENT_DICT_VERSION = 8;
     static final String END_OF_DICTIONARY = "END OF DICTIONARY";
 
     // persisted
@@ -57,6 +56,20 @@ public class Dictionary {
         indices = new ArrayList<Index>();
     }
 
+    /**
+     * For writing entries that are made as they're written (see
+     * DictionaryConverter), rather than all held in memory.
+     */
+    Dictionary(final long creationMillis, final String dictInfo,
+            final List<AbstractEntry> entries) {
+        this.dictFileVersion = CURRENT_DICT_VERSION;
+        this.creationMillis = creationMillis;
+        this.dictInfo = dictInfo;
+        this.entries = entries;
+        sources = new ArrayList<EntrySource>();
+        indices = new ArrayList<Index>();
+    }
+
     public Dictionary(final RandomAccessFile raf) throws IOException {
         dictFileVersion = raf.readInt();
         if (dictFileVersion < 0 || dictFileVersion > CURRENT_DICT_VERSION) {
@@ -89,6 +102,28 @@ public class Dictionary {
         }
     }
 
+    public void write(final RandomAccessFile raf) throws IOException {
+        raf.writeInt(dictFileVersion);
+        raf.writeLong(creationMillis);
+        raf.writeUTF(dictInfo);
+        RAFList.write(raf, sources, new EntrySource.Serializer(this));
+        CompressedList.write(raf, entries, new AbstractEntry.EntrySerializer(this));
+        RAFList.write(raf, indices, indexSerializer);
+        raf.writeUTF(END_OF_DICTIONARY);
+    }
+
+    private final RAFListSerializer<Index> indexSerializer = new RAFListSerializer<Index>() {
+        @Override
+        public Index read(RandomAccessFile raf, final int readIndex) throws IOException {
+            return new Index(Dictionary.this, raf);
+        }
+
+        @Override
+        public void write(RandomAccessFile raf, Index t) throws IOException {
+            t.write(raf);
+        }
+    };
+
     public void print(final PrintStream out) {
         out.println("dictInfo=" + dictInfo);
         for (final EntrySource entrySource : sources) {
@@ -0,0 +1,464 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine2;
+
+import com.hughes.android.dictionary.engine.Index.IndexEntry;
+import com.hughes.android.dictionary.engine.RowBase;
+import com.hughes.android.dictionary.engine.TokenRow;
+import com.hughes.android.util.BufferedRandomAccessFile;
+import com.hughes.android.util.ExternalSorter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Converts a dictionary in the engine's format (the ones installed today)
+ * to this package's, a piece at a time, so that it runs on a small heap
+ * whatever the size of the dictionary:
+ * <ul>
+ * <li>Entries are converted as they're written: pair entries first, then
+ * HTML entries, in their original order. TextEntries have no counterpart
+ * here (and no builder makes them), so they're dropped.
+ * <li>Each index's rows are streamed into (normalized token, entry,
+ * EntryRefType) records, which an ExternalSorter puts in token order. The
+ * sorted records are grouped into TrieEntries that are spooled to a temp
+ * file; only the distinct tokens (for the Trie) and where each TrieEntry
+ * starts in the spool stay in memory.
+ * </ul>
+ * Usage: DictionaryConverter in.quickdic out.quickdic [maxRecordsInMemory]
+ */
+public final class DictionaryConverter {
+
+    static final int DEFAULT_MAX_RECORDS_IN_MEMORY = 250000;
+    private static final int SPOOL_BUFFER_BYTES = 64 * 1024;
+    private static final EntryRefType[] ENTRY_REF_TYPES = EntryRefType.values();
+
+    private final com.hughes.android.dictionary.engine.Dictionary oldDictionary;
+    private final int maxRecordsInMemory;
+    private final List<SpooledTrieEntries> spools = new ArrayList<SpooledTrieEntries>();
+    // The new dictionary's, once they're made.
+    private List<EntrySource> sources;
+
+    private DictionaryConverter(final com.hughes.android.dictionary.engine.Dictionary oldDictionary,
+            final int maxRecordsInMemory) {
+        this.oldDictionary = oldDictionary;
+        this.maxRecordsInMemory = maxRecordsInMemory;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: DictionaryConverter in.quickdic out.quickdic "
+                    + "[maxRecordsInMemory]");
+            System.exit(1);
+        }
+        final int maxRecordsInMemory = args.length > 2 ? Integer.parseInt(args[2])
+                : DEFAULT_MAX_RECORDS_IN_MEMORY;
+        final long startMillis = System.currentTimeMillis();
+        convert(new File(args[0]), new File(args[1]), maxRecordsInMemory);
+        System.out.println("Converted in " + (System.currentTimeMillis() - startMillis) + "ms");
+    }
+
+    /**
+     * Writes to a temp file next to out, which is renamed to out when it's
+     * complete.
+     */
+    public static void convert(final File in, final File out, final int maxRecordsInMemory)
+            throws IOException {
+        final RandomAccessFile inRaf = new RandomAccessFile(in, "r");
+        try {
+            final DictionaryConverter converter = new DictionaryConverter(
+                    new com.hughes.android.dictionary.engine.Dictionary(inRaf), maxRecordsInMemory);
+            try {
+                final Dictionary dictionary = converter.convert();
+                final File tempFile = new File(out.getPath() + ".tmp");
+                final RandomAccessFile outRaf = new BufferedRandomAccessFile(tempFile, "rw");
+                try {
+                    outRaf.setLength(0);
+                    dictionary.write(outRaf);
+                } finally {
+                    outRaf.close();
+                }
+                if (!tempFile.renameTo(out)) {
+                    out.delete();
+                    if (!tempFile.renameTo(out)) {
+                        throw new IOException("Couldn't rename " + tempFile + " to " + out);
+                    }
+                }
+            } finally {
+                converter.close();
+            }
+        } finally {
+            inRaf.close();
+        }
+    }
+
+    private Dictionary convert() throws IOException {
+        final int numPairEntries = oldDictionary.pairEntries.size();
+        final int numHtmlEntries = oldDictionary.htmlEntries.size();
+        System.out.printf("%d pair entries, %d HTML entries, %d text entries (dropped)\n",
+                numPairEntries, numHtmlEntries, oldDictionary.textEntries.size());
+
+        final Dictionary dictionary = new Dictionary(
+                oldDictionary.getDictionaryInfo().creationMillis, oldDictionary.dictInfo,
+                new AbstractList<AbstractEntry>() {
+                    @Override
+                    public AbstractEntry get(int i) {
+                        return i < numPairEntries ? convertPairEntry(oldDictionary.pairEntries
+                                .get(i)) : convertHtmlEntry(oldDictionary.htmlEntries.get(i
+                                - numPairEntries));
+                    }
+
+                    @Override
+                    public int size() {
+                        return numPairEntries + numHtmlEntries;
+                    }
+                });
+        for (final com.hughes.android.dictionary.engine.EntrySource oldSource : oldDictionary.sources) {
+            dictionary.sources.add(new EntrySource(dictionary.sources.size(), oldSource.getName(),
+                    oldSource.getNumEntries()));
+        }
+        sources = dictionary.sources;
+
+        for (final com.hughes.android.dictionary.engine.Index oldIndex : oldDictionary.indices) {
+            dictionary.indices.add(convertIndex(dictionary, oldIndex));
+        }
+        return dictionary;
+    }
+
+    private PairEntry convertPairEntry(final com.hughes.android.dictionary.engine.PairEntry oldEntry) {
+        final PairEntry entry = new PairEntry(sources.get(oldEntry.entrySource.index()));
+        for (final com.hughes.android.dictionary.engine.PairEntry.Pair oldPair : oldEntry.pairs) {
+            entry.pairs.add(new PairEntry.Pair(oldPair.lang1, oldPair.lang2));
+        }
+        return entry;
+    }
+
+    private HtmlEntry convertHtmlEntry(final com.hughes.android.dictionary.engine.HtmlEntry oldEntry) {
+        final String html = oldEntry.html != null ? oldEntry.html : oldEntry.lazyHtmlLoader
+                .getHtml();
+        return new HtmlEntry(sources.get(oldEntry.entrySource.index()), oldEntry.title, html);
+    }
+
+    // --------------------------------------------------------------------------
+
+    private Index convertIndex(final Dictionary dictionary,
+            final com.hughes.android.dictionary.engine.Index oldIndex) throws IOException {
+        final Language language = Language.lookup(oldIndex.sortLanguage.getIsoCode());
+        final Index index = new Index(dictionary, language, oldIndex.longName);
+        index.mainTokenCount = oldIndex.getIndexInfo().mainTokenCount;
+        final int numPairEntries = oldDictionary.pairEntries.size();
+
+        // Every (token, entry) the old index's rows file an entry under.
+        final ExternalSorter<TokenRef> sorter = new ExternalSorter<TokenRef>(
+                TokenRef.COMPARATOR, TokenRef.CODEC, maxRecordsInMemory, null);
+        final ExternalSorter.Records<TokenRef> records;
+        try {
+            List<String> tokens = null;
+            int numDroppedRows = 0;
+            for (final RowBase row : oldIndex.rows) {
+                if (row instanceof TokenRow) {
+                    final IndexEntry indexEntry = ((TokenRow) row).getIndexEntry();
+                    // The old tokens can be several words, but lookup goes
+                    // word by word.
+                    tokens = normalizedTokens(language, indexEntry.token);
+                    for (final com.hughes.android.dictionary.engine.HtmlEntry htmlEntry : indexEntry.htmlEntries) {
+                        addHtmlEntry(sorter, language, tokens, htmlEntry, numPairEntries
+                                + htmlEntry.index());
+                    }
+                } else if (row instanceof com.hughes.android.dictionary.engine.PairEntry.Row) {
+                    addPairEntry(sorter, language, tokens,
+                            ((com.hughes.android.dictionary.engine.PairEntry.Row) row).getEntry(),
+                            oldIndex.swapPairEntries, row.referenceIndex);
+                } else if (row instanceof com.hughes.android.dictionary.engine.HtmlEntry.Row) {
+                    addHtmlEntry(sorter, language, tokens,
+                            ((com.hughes.android.dictionary.engine.HtmlEntry.Row) row).getEntry(),
+                            numPairEntries + row.referenceIndex);
+                } else {
+                    ++numDroppedRows;
+                }
+            }
+            System.out.printf("%s: %d rows, %d dropped, %d records in %d runs\n", oldIndex.longName,
+                    oldIndex.rows.size(), numDroppedRows, sorter.size(), sorter.numRuns());
+            records = sorter.sort();
+        } catch (IOException e) {
+            sorter.discard();
+            throw e;
+        }
+
+        // Group the sorted records by token, keeping the best EntryRefType
+        // for each entry, which sorts first.
+        final TrieBuilder trieBuilder = new TrieBuilder().setDoubleArray(true);
+        File spoolFile = null;
+        long[] offsets = new long[1024];
+        int numTrieEntries = 0;
+        long spoolBytes = 0;
+        try {
+            // In here, so records' runs are deleted if this fails too.
+            spoolFile = File.createTempFile("trieEntries", ".spool");
+            final DataOutputStream spool = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(spoolFile), SPOOL_BUFFER_BYTES));
+            try {
+                final byte[] entryRefBytes = new byte[TrieEntry.ENTRY_REF_BYTES];
+                byte[] token = null;
+                int lastEntryIndex = -1;
+                while (records.hasNext()) {
+                    final TokenRef tokenRef = records.next();
+                    if (token == null || !Arrays.equals(token, tokenRef.token)) {
+                        token = tokenRef.token;
+                        trieBuilder.add(token, numTrieEntries);
+                        if (numTrieEntries + 1 >= offsets.length) {
+                            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                        }
+                        offsets[numTrieEntries++] = spoolBytes;
+                        lastEntryIndex = -1;
+                    }
+                    if (tokenRef.entryIndex == lastEntryIndex) {
+                        continue;
+                    }
+                    lastEntryIndex = tokenRef.entryIndex;
+                    TrieEntry.encodeEntryRef(tokenRef.entryIndex,
+                            ENTRY_REF_TYPES[tokenRef.entryRefType], entryRefBytes, 0);
+                    spool.write(entryRefBytes);
+                    spoolBytes += entryRefBytes.length;
+                }
+                offsets[numTrieEntries] = spoolBytes;
+            } finally {
+                spool.close();
+            }
+        } catch (IOException e) {
+            if (spoolFile != null) {
+                spoolFile.delete();
+            }
+            throw e;
+        } finally {
+            records.close();
+        }
+
+        final SpooledTrieEntries trieEntries = new SpooledTrieEntries(spoolFile, Arrays.copyOf(
+                offsets, numTrieEntries + 1));
+        spools.add(trieEntries);
+        index.trieEntries = trieEntries;
+        index.trie = trieBuilder.build();
+        System.out.printf("%s: %d tokens, trie of %d bytes\n", oldIndex.longName, numTrieEntries,
+                index.trie.sectionBytes());
+        return index;
+    }
+
+    private static List<String> normalizedTokens(final Language language, final String text) {
+        final List<String> result = new ArrayList<String>();
+        final Language.Tokens tokens = new Language.Tokens();
+        Language.tokenize(text, tokens);
+        for (int i = 0; i < tokens.size(); ++i) {
+            result.add(language.normalizeText(text.substring(tokens.start(i), tokens.end(i))));
+        }
+        return result;
+    }
+
+    private static void addPairEntry(final ExternalSorter<TokenRef> sorter,
+            final Language language, final List<String> tokens,
+            final com.hughes.android.dictionary.engine.PairEntry oldEntry,
+            final boolean swapPairEntries, final int entryIndex) throws IOException {
+        if (tokens == null || tokens.isEmpty()) {
+            return;
+        }
+        final List<List<String>> sides = new ArrayList<List<String>>(oldEntry.pairs.size());
+        for (final com.hughes.android.dictionary.engine.PairEntry.Pair pair : oldEntry.pairs) {
+            sides.add(normalizedTokens(language, pair.get(swapPairEntries ? 1 : 0)));
+        }
+        for (final String token : tokens) {
+            sorter.add(new TokenRef(Index.toUTF8(token), entryIndex, pairEntryRefType(sides,
+                    token)));
+        }
+    }
+
+    private static void addHtmlEntry(final ExternalSorter<TokenRef> sorter,
+            final Language language, final List<String> tokens,
+            final com.hughes.android.dictionary.engine.HtmlEntry oldEntry, final int entryIndex)
+            throws IOException {
+        if (tokens == null || tokens.isEmpty()) {
+            return;
+        }
+        final List<String> titleTokens = normalizedTokens(language, oldEntry.title);
+        for (final String token : tokens) {
+            final EntryRefType entryRefType;
+            if (!titleTokens.contains(token)) {
+                entryRefType = EntryRefType.SEE_ALSO;
+            } else if (titleTokens.size() == 1) {
+                entryRefType = EntryRefType.WIKTIONARY_TITLE_SINGLE;
+            } else {
+                entryRefType = EntryRefType.WIKTIONARY_TITLE_MULTI;
+            }
+            sorter.add(new TokenRef(Index.toUTF8(token), entryIndex, entryRefType));
+        }
+    }
+
+    /**
+     * The old format doesn't say how an entry mentions its token, so it's
+     * worked out from the side of the pair that has it (or the first pair,
+     * if normalizing differently lost it).
+     */
+    static EntryRefType pairEntryRefType(final List<List<String>> sides, final String token) {
+        int side = 0;
+        for (int i = 0; i < sides.size(); ++i) {
+            if (sides.get(i).contains(token)) {
+                side = i;
+                break;
+            }
+        }
+        final int numWords = sides.get(side).size();
+        if (sides.size() > 1) {
+            if (side == 0) {
+                return numWords <= 1 ? EntryRefType.MULTIROW_HEAD_ONE_WORD
+                        : EntryRefType.MULTIROW_HEAD_MANY_WORDS;
+            }
+            return numWords <= 1 ? EntryRefType.MULTIROW_TAIL_ONE_WORD
+                    : EntryRefType.MULTIROW_TAIL_MANY_WORDS;
+        }
+        switch (numWords) {
+            case 0:
+            case 1:
+                return EntryRefType.ONE_WORD;
+            case 2:
+                return EntryRefType.TWO_WORDS;
+            case 3:
+                return EntryRefType.THREE_WORDS;
+            case 4:
+                return EntryRefType.FOUR_WORDS;
+            default:
+                return EntryRefType.FIVE_OR_MORE_WORDS;
+        }
+    }
+
+    private void close() {
+        for (final SpooledTrieEntries spool : spools) {
+            spool.close();
+        }
+        spools.clear();
+    }
+
+    // --------------------------------------------------------------------------
+
+    /**
+     * An entry filed under a normalized token, as it goes through the
+     * ExternalSorter.
+     */
+    static final class TokenRef {
+        final byte[] token;
+        final int entryIndex;
+        final byte entryRefType;
+
+        TokenRef(final byte[] token, final int entryIndex, final EntryRefType entryRefType) {
+            this(token, entryIndex, (byte) entryRefType.ordinal());
+        }
+
+        private TokenRef(final byte[] token, final int entryIndex, final byte entryRefType) {
+            this.token = token;
+            this.entryIndex = entryIndex;
+            this.entryRefType = entryRefType;
+        }
+
+        /**
+         * By token (in the Trie's order), then entry, then best
+         * EntryRefType first.
+         */
+        static final Comparator<TokenRef> COMPARATOR = new Comparator<TokenRef>() {
+            @Override
+            public int compare(TokenRef a, TokenRef b) {
+                final int result = TrieBuilder.compareSigned(a.token, b.token);
+                if (result != 0) {
+                    return result;
+                }
+                if (a.entryIndex != b.entryIndex) {
+                    return a.entryIndex < b.entryIndex ? -1 : 1;
+                }
+                return a.entryRefType - b.entryRefType;
+            }
+        };
+
+        static final ExternalSorter.Codec<TokenRef> CODEC = new ExternalSorter.Codec<TokenRef>() {
+            @Override
+            public void write(TokenRef record, DataOutput out) throws IOException {
+                out.writeShort(record.token.length);
+                out.write(record.token);
+                out.writeInt(record.entryIndex);
+                out.writeByte(record.entryRefType);
+            }
+
+            @Override
+            public TokenRef read(DataInput in) throws IOException {
+                final byte[] token = new byte[in.readUnsignedShort()];
+                in.readFully(token);
+                final int entryIndex = in.readInt();
+                return new TokenRef(token, entryIndex, in.readByte());
+            }
+        };
+    }
+
+    /**
+     * TrieEntries read back from a spool of EntryRefs as they're written,
+     * so they never all need to be in memory.
+     */
+    static final class SpooledTrieEntries extends AbstractList<TrieEntry> {
+        final File file;
+        final RandomAccessFile raf;
+        // TrieEntry i is the EntryRefs in [offsets[i], offsets[i + 1]).
+        final long[] offsets;
+
+        SpooledTrieEntries(final File file, final long[] offsets) throws IOException {
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "r");
+            this.offsets = offsets;
+        }
+
+        @Override
+        public TrieEntry get(final int i) {
+            final byte[] bytes = new byte[(int) (offsets[i + 1] - offsets[i])];
+            try {
+                raf.seek(offsets[i]);
+                raf.readFully(bytes);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to read spooled TrieEntry " + i, e);
+            }
+            return new TrieEntry(TrieEntry.decodeEntryRefs(bytes, 0, bytes.length
+                    / TrieEntry.ENTRY_REF_BYTES));
+        }
+
+        @Override
+        public int size() {
+            return offsets.length - 1;
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                System.out.println("Failed to close spool: " + file);
+            }
+            file.delete();
+        }
+    }
+
+}
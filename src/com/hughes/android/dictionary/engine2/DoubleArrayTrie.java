@@ -0,0 +1,222 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine2;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * The same trie as Trie, as a double array: the child of state s on byte b
+ * is base[s] + (b & 0xff), if check of that is s. So each byte of a key is
+ * one array lookup instead of a binary search over the children, which
+ * adds up for multi-byte (Cyrillic, Greek, CJK) tokens.
+ * <p>
+ * States aren't Trie's node numbers, but find and getValue work the same.
+ */
+public final class DoubleArrayTrie extends Trie {
+
+    private static final int FREE = -1;
+
+    // Buffers, like Trie's.
+    IntBuffer base;
+    IntBuffer check;
+    IntBuffer values;
+
+    private DoubleArrayTrie() {
+    }
+
+    @Override
+    public int find(final byte[] bytes) {
+        final int numStates = check.limit();
+        int state = 0;
+        for (int i = 0; i < bytes.length; ++i) {
+            final int next = base.get(state) + (bytes[i] & 0xff);
+            if (next >= numStates || check.get(next) != state) {
+                return -1;
+            }
+            state = next;
+        }
+        return state;
+    }
+
+    @Override
+    public int getValue(final int state) {
+        return state == -1 ? -1 : values.get(state);
+    }
+
+    /**
+     * States, including unused slots.
+     */
+    @Override
+    public int numNodes() {
+        return check.limit();
+    }
+
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(LAYOUT_DOUBLE_ARRAY);
+        out.writeInt(check.limit());
+        writeInts(out, base);
+        writeInts(out, check);
+        writeInts(out, values);
+    }
+
+    @Override
+    public long sectionBytes() {
+        return 8L + 12L * check.limit();
+    }
+
+    static DoubleArrayTrie readArrays(final ByteBuffer buffer) {
+        final DoubleArrayTrie trie = new DoubleArrayTrie();
+        final int numStates = buffer.getInt();
+        trie.base = view(buffer, 4 * numStates).asIntBuffer();
+        trie.check = view(buffer, 4 * numStates).asIntBuffer();
+        trie.values = view(buffer, 4 * numStates).asIntBuffer();
+        return trie;
+    }
+
+    /**
+     * Lays out trie's nodes, breadth first, each at the lowest base where
+     * all of its children fit.
+     */
+    static DoubleArrayTrie fromTrie(final Trie trie) {
+        final Builder builder = new Builder(trie.numNodes() + 256);
+        final int[] nodeToState = new int[trie.numNodes()];
+        // The root is state 0, which no transition leads to since bases
+        // start at 1.
+        nodeToState[0] = 0;
+        builder.use(0, FREE);
+        // Trie's nodes are breadth first, so parents come before children.
+        for (int node = 0; node < trie.numNodes(); ++node) {
+            final int state = nodeToState[node];
+            builder.ensureCapacity(state + 1);
+            builder.values[state] = trie.nodeValues.get(node);
+            final int start = trie.nodeStarts.get(node);
+            final int numChildren = trie.nodeLengths.get(node);
+            if (numChildren == 0) {
+                continue;
+            }
+            final int[] children = new int[numChildren];
+            for (int i = 0; i < numChildren; ++i) {
+                children[i] = trie.childKeyBytes.get(start + i) & 0xff;
+            }
+            // Signed order isn't unsigned order.
+            Arrays.sort(children);
+            final int base = builder.findBase(children);
+            builder.base[state] = base;
+            for (int i = 0; i < numChildren; ++i) {
+                final byte key = trie.childKeyBytes.get(start + i);
+                final int childState = base + (key & 0xff);
+                builder.use(childState, state);
+                nodeToState[trie.childNextNodeIndices.get(start + i)] = childState;
+            }
+        }
+        return builder.build();
+    }
+
+    private static final class Builder {
+        int[] base;
+        int[] check;
+        int[] values;
+        int size = 0;
+        // For finding the next free slot: nextFree[i] == i if i is free,
+        // otherwise it points further along (path compressed).
+        int[] nextFree;
+
+        Builder(final int capacity) {
+            base = new int[0];
+            check = new int[0];
+            values = new int[0];
+            nextFree = new int[0];
+            ensureCapacity(capacity);
+        }
+
+        void ensureCapacity(final int capacity) {
+            if (capacity <= check.length) {
+                return;
+            }
+            final int oldLength = check.length;
+            final int newLength = Math.max(capacity, oldLength + oldLength / 2);
+            base = Arrays.copyOf(base, newLength);
+            check = Arrays.copyOf(check, newLength);
+            values = Arrays.copyOf(values, newLength);
+            nextFree = Arrays.copyOf(nextFree, newLength + 1);
+            Arrays.fill(check, oldLength, newLength, FREE);
+            Arrays.fill(values, oldLength, newLength, -1);
+            for (int i = oldLength; i <= newLength; ++i) {
+                nextFree[i] = i;
+            }
+        }
+
+        /**
+         * The first free slot at or after from.
+         */
+        int findFree(final int from) {
+            ensureCapacity(from + 1);
+            int slot = from;
+            while (nextFree[slot] != slot) {
+                slot = nextFree[slot];
+            }
+            // Compress the path.
+            int i = from;
+            while (nextFree[i] != slot) {
+                final int next = nextFree[i];
+                nextFree[i] = slot;
+                i = next;
+            }
+            return slot;
+        }
+
+        /**
+         * @param children sorted, unsigned.
+         */
+        int findBase(final int[] children) {
+            // Only bases that put the first child in a free slot are worth
+            // trying.
+            int slot = findFree(children[0] + 1);
+            outer: while (true) {
+                final int base = slot - children[0];
+                ensureCapacity(base + children[children.length - 1] + 1);
+                for (int i = 1; i < children.length; ++i) {
+                    if (check[base + children[i]] != FREE) {
+                        slot = findFree(slot + 1);
+                        continue outer;
+                    }
+                }
+                return base;
+            }
+        }
+
+        void use(final int state, final int parent) {
+            ensureCapacity(state + 1);
+            // The root's check stays FREE, but it's taken out of nextFree.
+            check[state] = parent;
+            nextFree[state] = state + 1;
+            size = Math.max(size, state + 1);
+        }
+
+        DoubleArrayTrie build() {
+            final DoubleArrayTrie trie = new DoubleArrayTrie();
+            trie.base = IntBuffer.wrap(Arrays.copyOf(base, size));
+            trie.check = IntBuffer.wrap(Arrays.copyOf(check, size));
+            trie.values = IntBuffer.wrap(Arrays.copyOf(values, size));
+            return trie;
+        }
+    }
+
+}
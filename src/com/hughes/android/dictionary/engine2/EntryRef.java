@@ -3,4 +3,22 @@ package com.hughes.android.dictionary.engine2;
 public class EntryRef {
     int entryIndex;
     EntryRefType entryRefType;
+
+    EntryRef(final int entryIndex, final EntryRefType entryRefType) {
+        this.entryIndex = entryIndex;
+        this.entryRefType = entryRefType;
+    }
+
+    public int getEntryIndex() {
+        return entryIndex;
+    }
+
+    public EntryRefType getEntryRefType() {
+        return entryRefType;
+    }
+
+    @Override
+    public String toString() {
+        return entryIndex + ":" + entryRefType;
+    }
 }
@@ -0,0 +1,85 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine2;
+
+import com.hughes.util.StringUtil;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class HtmlEntry extends AbstractEntry {
+
+    // Title is not HTML escaped.
+    public final String title;
+
+    // One or the other: entries read from a file keep the HTML zipped until
+    // it's asked for.
+    private String html;
+    private final int numBytes;
+    private final byte[] zipBytes;
+
+    public HtmlEntry(final EntrySource entrySource, final String title, final String html) {
+        super(entrySource);
+        this.title = title;
+        this.html = html;
+        numBytes = -1;
+        zipBytes = null;
+    }
+
+    public HtmlEntry(final EntrySource entrySource, final DataInputStream in)
+            throws IOException {
+        super(entrySource);
+        title = in.readUTF();
+        numBytes = in.readInt();
+        zipBytes = new byte[in.readInt()];
+        in.readFully(zipBytes);
+        html = null;
+    }
+
+    @Override
+    void writeChild(DataOutputStream out) throws IOException {
+        out.writeUTF(title);
+        final byte[] bytes = getHtml().getBytes("UTF-8");
+        final byte[] zipped = StringUtil.zipBytes(bytes);
+        out.writeInt(bytes.length);
+        out.writeInt(zipped.length);
+        out.write(zipped);
+    }
+
+    public synchronized String getHtml() {
+        if (html == null) {
+            final byte[] bytes = new byte[numBytes];
+            try {
+                StringUtil.unzipFully(zipBytes, bytes);
+                html = new String(bytes, "UTF-8");
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to unzip HTML for: " + title, e);
+            }
+        }
+        return html;
+    }
+
+    @Override
+    public String toString() {
+        return title;
+    }
+
+    @Override
+    Subtype getSubtype() {
+        return Subtype.HTML;
+    }
+
+}
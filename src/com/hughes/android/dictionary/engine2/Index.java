@@ -21,32 +21,254 @@ package com.hughes.android.dictionary.engine2;
 import com.hughes.android.dictionary.DictionaryInfo;
 import com.hughes.android.dictionary.DictionaryInfo.IndexInfo;
 import com.hughes.android.dictionary.engine2.Language;
+import com.hughes.android.util.ZipEntryRandomAccessFile;
+import com.hughes.util.CachingList;
+import com.hughes.util.raf.RAFList;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class Index {
 
+    static final int CACHE_SIZE = 5000;
+    private static final int TRIE_BUFFER_BYTES = 64 * 1024;
+
     public final Dictionary dictionary;
     public final Language language;
     public final String name;
     
     int mainTokenCount = 0;
-    
+
+    // Normalized token (as UTF-8) -> index into trieEntries.
+    Trie trie = null;
+    List<TrieEntry> trieEntries = null;
+
     Index(Dictionary dictionary, Language language, final String name) {
         this.dictionary = dictionary;
         this.language = language;
         this.name = name;
     }
 
+    Index(final Dictionary dictionary, final RandomAccessFile raf) throws IOException {
+        this.dictionary = dictionary;
+        name = raf.readUTF();
+        final String languageCode = raf.readUTF();
+        language = Language.lookup(languageCode);
+        mainTokenCount = raf.readInt();
+
+        // The trie is read in bulk out of a mapping of its section.
+        final long trieBytes = raf.readLong();
+        final long trieStart = raf.getFilePointer();
+        final ByteBuffer buffer = ZipEntryRandomAccessFile.map(raf, trieStart, trieBytes);
+        trie = Trie.read(buffer);
+        raf.seek(trieStart + trieBytes);
+
+        trieEntries = CachingList.create(
+                RAFList.create(raf, TrieEntry.SERIALIZER, raf.getFilePointer()), CACHE_SIZE);
+    }
+
+    void write(final RandomAccessFile raf) throws IOException {
+        raf.writeUTF(name);
+        raf.writeUTF(language.getIsoCode());
+        raf.writeInt(mainTokenCount);
+
+        raf.writeLong(trie.sectionBytes());
+        // Buffered, rather than an int at a time. Through raf's own write
+        // (not its channel), so raf can be a BufferedRandomAccessFile. Not
+        // closed, since that would close raf.
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new OutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        raf.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        raf.write(b, off, len);
+                    }
+                }, TRIE_BUFFER_BYTES));
+        trie.write(out);
+        out.flush();
+
+        RAFList.write(raf, trieEntries, TrieEntry.SERIALIZER);
+    }
+
+    /**
+     * Finds the entries filed under all the tokens of text, best first (see
+     * RANK_COMPARATOR).
+     * <p>
+     * The EntryRef lists are intersected by walking the shortest one and
+     * galloping ahead in the others, so the cost is proportional to the
+     * shortest list (times a log), not the longest.
+     *
+     * @return null if cancel got set.
+     */
     public List<EntryRef> lookup(final String text, final AtomicBoolean cancel) {
         // Tokenize text.
+        final Language.Tokens tokens = new Language.Tokens();
+        Language.tokenize(text, tokens);
+        final Set<String> normalizedTokens = new LinkedHashSet<String>();
+        for (int i = 0; i < tokens.size(); ++i) {
+            normalizedTokens.add(language.normalizeText(text.substring(tokens.start(i),
+                    tokens.end(i))));
+        }
+        if (normalizedTokens.isEmpty() || trie == null) {
+            return Collections.emptyList();
+        }
+
         // Lookup each normalized token to get lists of EntryRefs.
-        // Merge and rank list of EntryRefs
-        // Group by language.
-        return null;
+        final List<List<EntryRef>> postings = new ArrayList<List<EntryRef>>(
+                normalizedTokens.size());
+        for (final String normalizedToken : normalizedTokens) {
+            if (cancel.get()) {
+                return null;
+            }
+            final int trieEntryIndex = trie.getValue(trie.find(toUTF8(normalizedToken)));
+            if (trieEntryIndex == -1) {
+                // Nothing has all the tokens.
+                return Collections.emptyList();
+            }
+            postings.add(trieEntries.get(trieEntryIndex).entryRefs);
+        }
+        Collections.sort(postings, new Comparator<List<EntryRef>>() {
+            @Override
+            public int compare(List<EntryRef> a, List<EntryRef> b) {
+                return a.size() - b.size();
+            }
+        });
+
+        // Merge and rank list of EntryRefs.
+        final List<Match> matches = intersect(postings, cancel);
+        if (matches == null) {
+            return null;
+        }
+        Collections.sort(matches, RANK_COMPARATOR);
+        final List<EntryRef> result = new ArrayList<EntryRef>(matches.size());
+        for (final Match match : matches) {
+            result.add(new EntryRef(match.entryIndex, match.bestType));
+        }
+        // Group by language: there's just this index's, for now.
+        return result;
+    }
+
+    /**
+     * An entry that has all the tokens, and how it mentions them.
+     */
+    static final class Match {
+        final int entryIndex;
+        int numMainWord = 0;
+        int numOverridesStopList = 0;
+        // The one that comes first in EntryRefType.
+        EntryRefType bestType = null;
+
+        Match(final int entryIndex) {
+            this.entryIndex = entryIndex;
+        }
+
+        void add(final EntryRefType type) {
+            if (type.mainWord) {
+                ++numMainWord;
+            }
+            if (type.overridesStopList) {
+                ++numOverridesStopList;
+            }
+            if (bestType == null || type.ordinal() < bestType.ordinal()) {
+                bestType = type;
+            }
+        }
+    }
+
+    /**
+     * Most tokens as main words first, then most that override the stop
+     * list, then by the best EntryRefType, then in entry order.
+     */
+    static final Comparator<Match> RANK_COMPARATOR = new Comparator<Match>() {
+        @Override
+        public int compare(Match a, Match b) {
+            if (a.numMainWord != b.numMainWord) {
+                return b.numMainWord - a.numMainWord;
+            }
+            if (a.numOverridesStopList != b.numOverridesStopList) {
+                return b.numOverridesStopList - a.numOverridesStopList;
+            }
+            if (a.bestType != b.bestType) {
+                return a.bestType.ordinal() - b.bestType.ordinal();
+            }
+            return a.entryIndex - b.entryIndex;
+        }
+    };
+
+    /**
+     * @param postings sorted shortest first, each sorted by entryIndex.
+     * @return null if cancel got set.
+     */
+    static List<Match> intersect(final List<List<EntryRef>> postings,
+            final AtomicBoolean cancel) {
+        final List<EntryRef> shortest = postings.get(0);
+        final int[] positions = new int[postings.size()];
+        final List<Match> result = new ArrayList<Match>();
+        candidates: for (final EntryRef candidate : shortest) {
+            if (cancel.get()) {
+                return null;
+            }
+            final Match match = new Match(candidate.entryIndex);
+            match.add(candidate.entryRefType);
+            for (int i = 1; i < postings.size(); ++i) {
+                final List<EntryRef> posting = postings.get(i);
+                positions[i] = gallop(posting, positions[i], candidate.entryIndex);
+                if (positions[i] == posting.size()) {
+                    // This one's used up, so nothing more can match.
+                    break candidates;
+                }
+                final EntryRef entryRef = posting.get(positions[i]);
+                if (entryRef.entryIndex != candidate.entryIndex) {
+                    continue candidates;
+                }
+                match.add(entryRef.entryRefType);
+            }
+            result.add(match);
+        }
+        return result;
+    }
+
+    /**
+     * The first position at or after from whose entryIndex is at least
+     * entryIndex: steps ahead 1, 2, 4, ... and then binary searches the last
+     * step.
+     */
+    static int gallop(final List<EntryRef> posting, final int from, final int entryIndex) {
+        int low = from;
+        int step = 1;
+        int high = from;
+        while (high < posting.size() && posting.get(high).entryIndex < entryIndex) {
+            low = high + 1;
+            high += step;
+            step *= 2;
+        }
+        high = Math.min(high, posting.size());
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (posting.get(mid).entryIndex < entryIndex) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     public IndexInfo getIndexInfo() {
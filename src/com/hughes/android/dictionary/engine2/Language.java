@@ -213,10 +213,16 @@ public class Language {
 
     final String isoCode;
     private final Locale locale;
+    private final Normalizer normalizer;
 
     private Language(final Locale locale, final String isoCode) {
+        this(locale, isoCode, new Normalizer(locale, true));
+    }
+
+    private Language(final Locale locale, final String isoCode, final Normalizer normalizer) {
         this.locale = locale;
         this.isoCode = isoCode;
+        this.normalizer = normalizer;
         registry.put(isoCode, this);
     }
 
@@ -229,17 +235,147 @@ public class Language {
         return isoCode;
     }
     
+    /**
+     * One pass of this language's Normalizer; returns text itself if it's
+     * already normalized.
+     */
     public String normalizeText(String text) {
-        text = text.toLowerCase(locale);
-        return text;
+        return normalizer.normalize(text);
+    }
+
+    /**
+     * Appends text, normalized, to out, e.g. a buffer reused across tokens.
+     */
+    public void normalizeText(final CharSequence text, final StringBuilder out) {
+        normalizer.normalize(text, out);
     }
     
     public List<String> tokenizeText(String text) {
-        List<String> result = new ArrayList<String>();
-        
+        final List<String> result = new ArrayList<String>();
+        final Tokens tokens = new Tokens();
+        tokenize(text, tokens);
+        for (int i = 0; i < tokens.size(); ++i) {
+            result.add(text.substring(tokens.start(i), tokens.end(i)));
+        }
         return result;
     }
 
+    // ----------------------------------------------------------------
+    // Tokenizing without allocating: tokens are runs of code points in
+    // [\p{L}\p{M}\p{N}], i.e. the complement of Regex.NON_CHAR.
+
+    /**
+     * Gets each token of the text it's passed, as a range of it.
+     */
+    public interface TokenCallback {
+        void onToken(CharSequence text, int start, int end);
+    }
+
+    /**
+     * Reusable buffer of token boundaries; only grows when a text has more
+     * tokens than any before it.
+     */
+    public static final class Tokens {
+        // start, end, start, end, ...
+        private int[] boundaries = new int[32];
+        private int size = 0;
+
+        public int size() {
+            return size;
+        }
+
+        public int start(final int i) {
+            return boundaries[2 * i];
+        }
+
+        public int end(final int i) {
+            return boundaries[2 * i + 1];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(final int start, final int end) {
+            if (2 * size + 2 > boundaries.length) {
+                final int[] newBoundaries = new int[2 * boundaries.length];
+                System.arraycopy(boundaries, 0, newBoundaries, 0, 2 * size);
+                boundaries = newBoundaries;
+            }
+            boundaries[2 * size] = start;
+            boundaries[2 * size + 1] = end;
+            ++size;
+        }
+    }
+
+    private static final int TOKEN_CHAR_TYPES = 1 << Character.UPPERCASE_LETTER
+            | 1 << Character.LOWERCASE_LETTER | 1 << Character.TITLECASE_LETTER
+            | 1 << Character.MODIFIER_LETTER | 1 << Character.OTHER_LETTER
+            | 1 << Character.NON_SPACING_MARK | 1 << Character.ENCLOSING_MARK
+            | 1 << Character.COMBINING_SPACING_MARK | 1 << Character.DECIMAL_DIGIT_NUMBER
+            | 1 << Character.LETTER_NUMBER | 1 << Character.OTHER_NUMBER;
+
+    private static final boolean[] ASCII_TOKEN_CHARS = new boolean[128];
+    static {
+        for (int c = 0; c < ASCII_TOKEN_CHARS.length; ++c) {
+            ASCII_TOKEN_CHARS[c] = (TOKEN_CHAR_TYPES >> Character.getType(c) & 1) != 0;
+        }
+    }
+
+    static boolean isTokenChar(final int codePoint) {
+        if (codePoint < ASCII_TOKEN_CHARS.length) {
+            return ASCII_TOKEN_CHARS[codePoint];
+        }
+        return (TOKEN_CHAR_TYPES >> Character.getType(codePoint) & 1) != 0;
+    }
+
+    /**
+     * Fills tokens (after clearing it) with the boundaries of text's tokens.
+     */
+    public static void tokenize(final CharSequence text, final Tokens tokens) {
+        tokens.clear();
+        final int length = text.length();
+        int start = -1;
+        int i = 0;
+        while (i < length) {
+            final int codePoint = Character.codePointAt(text, i);
+            final boolean isTokenChar = isTokenChar(codePoint);
+            if (isTokenChar && start == -1) {
+                start = i;
+            } else if (!isTokenChar && start != -1) {
+                tokens.add(start, i);
+                start = -1;
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (start != -1) {
+            tokens.add(start, length);
+        }
+    }
+
+    /**
+     * Calls callback for each token of text, in order, without allocating.
+     */
+    public static void tokenize(final CharSequence text, final TokenCallback callback) {
+        final int length = text.length();
+        int start = -1;
+        int i = 0;
+        while (i < length) {
+            final int codePoint = Character.codePointAt(text, i);
+            final boolean isTokenChar = isTokenChar(codePoint);
+            if (isTokenChar && start == -1) {
+                start = i;
+            } else if (!isTokenChar && start != -1) {
+                callback.onToken(text, start, i);
+                start = -1;
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (start != -1) {
+            callback.onToken(text, start, length);
+        }
+    }
+
 //    /**
 //     * A practical pattern to identify strong RTL characters. This pattern is
 //     * not completely correct according to the Unicode standard. It is
@@ -268,16 +404,13 @@ public class Language {
     public static final Language fr = new Language(Locale.FRENCH, "FR");
     public static final Language it = new Language(Locale.ITALIAN, "IT");
 
-    public static final Language de = new Language(Locale.GERMAN, "DE") {
-        @Override
-        public String normalizeText(String text) {
-            text = text.replaceAll("ae", "ä");
-            text = text.replaceAll("oe", "ö");
-            text = text.replaceAll("ue", "ü");
-            text = text.replaceAll("ß", "ss");
-            return text;
-        }
-    };
+    // Doesn't lowercase, as before.
+    public static final Language de = new Language(Locale.GERMAN, "DE", new Normalizer(
+            Locale.GERMAN, false,
+            "ae", "ä",
+            "oe", "ö",
+            "ue", "ü",
+            "ß", "ss"));
 
     // ----------------------------------------------------------------
 
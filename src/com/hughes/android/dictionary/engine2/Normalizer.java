@@ -0,0 +1,208 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A Language's normalization: optionally lowercases, and rewrites with a
+ * fixed set of rules (e.g. "ae" -> "ä"), all in one pass over the text.
+ * <p>
+ * The rules' sources are compiled into a trie over chars; at each position
+ * the longest source that matches (after lowercasing) is replaced by its
+ * target, otherwise the char is copied. Targets aren't rewritten again, so
+ * rules whose targets could feed other rules' sources aren't equivalent to
+ * applying them one after the other.
+ */
+public final class Normalizer {
+
+    // Chars where String.toLowerCase isn't just Character.toLowerCase of
+    // each char.
+    private static final char CAPITAL_I_WITH_DOT = '\u0130';
+    private static final char CAPITAL_SIGMA = '\u03a3';
+
+    private final Locale locale;
+    private final boolean lowercase;
+    // Whether lowercasing needs the locale (Turkish dotless i and the like).
+    private final boolean localeSensitive;
+
+    // The trie: node i's children are childKeys[childStarts[i],
+    // childStarts[i + 1]), sorted, leading to childNodes. Node 0 is the root.
+    private final int[] childStarts;
+    private final char[] childKeys;
+    private final int[] childNodes;
+    // What to write if a match ends at a node, or null.
+    private final String[] outputs;
+
+    private final ThreadLocal<StringBuilder> buffers = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+
+    /**
+     * @param rules source, target, source, target, ... Sources should be
+     *            lowercase if lowercase is set.
+     */
+    public Normalizer(final Locale locale, final boolean lowercase, final String... rules) {
+        this.locale = locale;
+        this.lowercase = lowercase;
+        final String language = locale.getLanguage();
+        localeSensitive = language.equals("tr") || language.equals("az")
+                || language.equals("lt");
+
+        // Build the trie as nested maps, then flatten it breadth first.
+        final TrieNode root = new TrieNode();
+        for (int i = 0; i < rules.length; i += 2) {
+            TrieNode node = root;
+            for (int j = 0; j < rules[i].length(); ++j) {
+                TrieNode child = node.children.get(rules[i].charAt(j));
+                if (child == null) {
+                    child = new TrieNode();
+                    node.children.put(rules[i].charAt(j), child);
+                }
+                node = child;
+            }
+            node.output = rules[i + 1];
+        }
+        final List<TrieNode> nodes = new ArrayList<TrieNode>();
+        nodes.add(root);
+        int numChildren = 0;
+        for (int i = 0; i < nodes.size(); ++i) {
+            nodes.get(i).index = i;
+            nodes.addAll(nodes.get(i).children.values());
+            numChildren += nodes.get(i).children.size();
+        }
+        childStarts = new int[nodes.size() + 1];
+        childKeys = new char[numChildren];
+        childNodes = new int[numChildren];
+        outputs = new String[nodes.size()];
+        int child = 0;
+        for (int i = 0; i < nodes.size(); ++i) {
+            childStarts[i] = child;
+            outputs[i] = nodes.get(i).output;
+            for (final Map.Entry<Character, TrieNode> entry : nodes.get(i).children.entrySet()) {
+                childKeys[child] = entry.getKey();
+                childNodes[child] = entry.getValue().index;
+                ++child;
+            }
+        }
+        childStarts[nodes.size()] = child;
+    }
+
+    private static final class TrieNode {
+        final Map<Character, TrieNode> children = new TreeMap<Character, TrieNode>();
+        String output = null;
+        int index;
+    }
+
+    /**
+     * @return text normalized, which is text itself if nothing changed.
+     */
+    public String normalize(final String text) {
+        final StringBuilder buffer = buffers.get();
+        buffer.setLength(0);
+        return normalize(text, buffer) ? buffer.toString() : text;
+    }
+
+    /**
+     * Appends text, normalized, to out.
+     *
+     * @return whether that's different from text.
+     */
+    public boolean normalize(final CharSequence text, final StringBuilder out) {
+        if (lowercase && needsLocaleLowercase(text)) {
+            // Rare enough to not be worth doing in the single pass.
+            final String lowercased = text.toString().toLowerCase(locale);
+            return rewrite(lowercased, out, false) || !lowercased.contentEquals(text);
+        }
+        return rewrite(text, out, lowercase);
+    }
+
+    private boolean needsLocaleLowercase(final CharSequence text) {
+        if (localeSensitive) {
+            return true;
+        }
+        for (int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            if (c == CAPITAL_I_WITH_DOT || c == CAPITAL_SIGMA) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean rewrite(final CharSequence text, final StringBuilder out,
+            final boolean lowercase) {
+        boolean changed = false;
+        final int length = text.length();
+        int i = 0;
+        while (i < length) {
+            // The longest rule that matches at i.
+            String matchOutput = null;
+            int matchEnd = -1;
+            int node = 0;
+            for (int j = i; j < length; ++j) {
+                final char c = text.charAt(j);
+                node = findChild(node, lowercase ? Character.toLowerCase(c) : c);
+                if (node == -1) {
+                    break;
+                }
+                if (outputs[node] != null) {
+                    matchOutput = outputs[node];
+                    matchEnd = j + 1;
+                }
+            }
+            if (matchOutput != null) {
+                out.append(matchOutput);
+                i = matchEnd;
+                changed = true;
+                continue;
+            }
+
+            final int codePoint = Character.codePointAt(text, i);
+            final int outCodePoint = lowercase ? Character.toLowerCase(codePoint) : codePoint;
+            if (outCodePoint != codePoint) {
+                changed = true;
+            }
+            if (outCodePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                out.append((char) outCodePoint);
+            } else {
+                out.appendCodePoint(outCodePoint);
+            }
+            i += Character.charCount(codePoint);
+        }
+        return changed;
+    }
+
+    private int findChild(final int node, final char c) {
+        // Only a handful of children, so no need to binary search.
+        for (int child = childStarts[node]; child < childStarts[node + 1]; ++child) {
+            if (childKeys[child] == c) {
+                return childNodes[child];
+            }
+            if (childKeys[child] > c) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+}
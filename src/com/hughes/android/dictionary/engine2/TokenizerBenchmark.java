@@ -0,0 +1,152 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine2;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times Language.tokenize against splitting on Regex.NON_CHAR over the
+ * lines of a text file (e.g. a dictionary source), and checks they agree.
+ * On a JVM with com.sun.management, also reports bytes allocated per line.
+ * <p>
+ * Usage: TokenizerBenchmark file.txt [iterations]
+ */
+final class TokenizerBenchmark {
+
+    private TokenizerBenchmark() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(args[0]), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        final int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        // Check they agree.
+        final Language.Tokens tokens = new Language.Tokens();
+        for (final String line : lines) {
+            final List<String> expected = splitTokens(line);
+            Language.tokenize(line, tokens);
+            if (tokens.size() != expected.size()) {
+                throw new IllegalStateException("Different tokens for: " + line);
+            }
+            for (int i = 0; i < tokens.size(); ++i) {
+                if (!expected.get(i).equals(line.substring(tokens.start(i), tokens.end(i)))) {
+                    throw new IllegalStateException("Different tokens for: " + line);
+                }
+            }
+        }
+
+        final int[] sink = new int[1];
+        final Language.TokenCallback callback = new Language.TokenCallback() {
+            @Override
+            public void onToken(CharSequence text, int start, int end) {
+                sink[0] += end - start;
+            }
+        };
+        for (int round = 0; round < 2; ++round) {
+            // The first round is warm-up.
+            final boolean print = round == 1;
+
+            long startNanos = System.nanoTime();
+            long startBytes = allocatedBytes();
+            for (int i = 0; i < iterations; ++i) {
+                for (final String line : lines) {
+                    sink[0] += splitTokens(line).size();
+                }
+            }
+            report(print, "Regex.NON_CHAR split", lines.size() * iterations, startNanos,
+                    startBytes);
+
+            startNanos = System.nanoTime();
+            startBytes = allocatedBytes();
+            for (int i = 0; i < iterations; ++i) {
+                for (final String line : lines) {
+                    Language.tokenize(line, tokens);
+                    sink[0] += tokens.size();
+                }
+            }
+            report(print, "Language.tokenize(Tokens)", lines.size() * iterations, startNanos,
+                    startBytes);
+
+            startNanos = System.nanoTime();
+            startBytes = allocatedBytes();
+            for (int i = 0; i < iterations; ++i) {
+                for (final String line : lines) {
+                    Language.tokenize(line, callback);
+                }
+            }
+            report(print, "Language.tokenize(TokenCallback)", lines.size() * iterations,
+                    startNanos, startBytes);
+        }
+        System.out.println("(" + sink[0] + ")");
+    }
+
+    /**
+     * How the old engine splits text into tokens.
+     */
+    private static List<String> splitTokens(final String text) {
+        final List<String> result = new ArrayList<String>();
+        for (final String token : Regex.NON_CHAR.split(text)) {
+            if (token.length() > 0) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    private static void report(final boolean print, final String name, final int numLines,
+            final long startNanos, final long startBytes) {
+        final long nanos = System.nanoTime() - startNanos;
+        final long bytes = allocatedBytes() - startBytes;
+        if (print) {
+            System.out.printf("%s: %dns/line, %s bytes/line\n", name, nanos / numLines,
+                    startBytes < 0 ? "?" : String.valueOf(bytes / numLines));
+        }
+    }
+
+    /**
+     * Bytes allocated by this thread so far, or -1 if the JVM can't say.
+     * Through reflection, since Android doesn't have java.lang.management.
+     */
+    private static long allocatedBytes() {
+        try {
+            final Object threadMXBean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean").invoke(null);
+            final Method getThreadAllocatedBytes = Class.forName(
+                    "com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes",
+                    long.class);
+            return (Long) getThreadAllocatedBytes.invoke(threadMXBean, Thread.currentThread()
+                    .getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+}
@@ -1,28 +1,144 @@
 package com.hughes.android.dictionary.engine2;
 
-import java.util.Arrays;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 public class Trie {
+    // Which class wrote a section, see read.
+    static final int LAYOUT_SORTED_CHILDREN = 0;
+    static final int LAYOUT_DOUBLE_ARRAY = 1;
+
+    // Buffers rather than arrays, so a trie that's read stays in its
+    // mapping instead of being copied to the heap; a built one wraps arrays.
+    // Only ever read with absolute gets.
+
     // For a list of nodes.
-    int[] nodeStarts;
-    short[] nodeLengths;
-    
-    byte[] childKeyBytes;
-    int[] childNextNodeIndices;
-    
+    IntBuffer nodeStarts;
+    ShortBuffer nodeLengths;
+    // The value of the key that ends at each node, or -1.
+    IntBuffer nodeValues;
+
+    // Sorted (as signed bytes) within each node, for binarySearch.
+    ByteBuffer childKeyBytes;
+    IntBuffer childNextNodeIndices;
+
     public int find(byte[] bytes) {
         int node = 0;
         int bytesIndex = 0;
         while (bytesIndex < bytes.length) {
-            final int start = nodeStarts[node];
-            final int end = start + nodeLengths[node];
-            int searchResult = Arrays.binarySearch(childKeyBytes, start, end, bytes[bytesIndex]);
+            final int start = nodeStarts.get(node);
+            final int end = start + nodeLengths.get(node);
+            int searchResult = binarySearch(childKeyBytes, start, end, bytes[bytesIndex]);
             if (searchResult < 0) {
                 return -1;
             }
-            node = childNextNodeIndices[searchResult];
+            node = childNextNodeIndices.get(searchResult);
             ++bytesIndex;
         }
         return node;
     }
+
+    /**
+     * Arrays.binarySearch, for a buffer.
+     */
+    private static int binarySearch(final ByteBuffer bytes, final int from, final int to,
+            final byte key) {
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final byte midByte = bytes.get(mid);
+            if (midByte < key) {
+                low = mid + 1;
+            } else if (midByte > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * @return the value of the key ending at node (as returned by find), or
+     *         -1 if it's just a prefix or there's no such node.
+     */
+    public int getValue(final int node) {
+        return node == -1 ? -1 : nodeValues.get(node);
+    }
+
+    public int numNodes() {
+        return nodeStarts.limit();
+    }
+
+    /**
+     * Writes the trie as a section of fixed-width arrays (ints first, so
+     * they stay aligned), to be read back with read, e.g. from a read-only
+     * mapping of the file.
+     */
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(LAYOUT_SORTED_CHILDREN);
+        out.writeInt(nodeStarts.limit());
+        out.writeInt(childKeyBytes.limit());
+        writeInts(out, nodeStarts);
+        writeInts(out, nodeValues);
+        writeInts(out, childNextNodeIndices);
+        for (int i = 0; i < nodeLengths.limit(); ++i) {
+            out.writeShort(nodeLengths.get(i));
+        }
+        for (int i = 0; i < childKeyBytes.limit(); ++i) {
+            out.writeByte(childKeyBytes.get(i));
+        }
+    }
+
+    static void writeInts(final DataOutput out, final IntBuffer ints) throws IOException {
+        for (int i = 0; i < ints.limit(); ++i) {
+            out.writeInt(ints.get(i));
+        }
+    }
+
+    /**
+     * Reads a section written by write (of either layout), starting at
+     * buffer's position (which ends up just past it). The trie keeps views
+     * of buffer rather than copies, so with a mapped buffer, lookups read
+     * the mapping and the arrays never take up heap.
+     */
+    public static Trie read(final ByteBuffer buffer) {
+        final int layout = buffer.getInt();
+        if (layout == LAYOUT_DOUBLE_ARRAY) {
+            return DoubleArrayTrie.readArrays(buffer);
+        } else if (layout != LAYOUT_SORTED_CHILDREN) {
+            throw new IllegalArgumentException("Unknown trie layout: " + layout);
+        }
+        final Trie trie = new Trie();
+        final int numNodes = buffer.getInt();
+        final int numChildren = buffer.getInt();
+        trie.nodeStarts = view(buffer, 4 * numNodes).asIntBuffer();
+        trie.nodeValues = view(buffer, 4 * numNodes).asIntBuffer();
+        trie.childNextNodeIndices = view(buffer, 4 * numChildren).asIntBuffer();
+        trie.nodeLengths = view(buffer, 2 * numNodes).asShortBuffer();
+        trie.childKeyBytes = view(buffer, numChildren);
+        return trie;
+    }
+
+    /**
+     * The next numBytes of buffer, as a buffer of their own (in the same
+     * order), and moves buffer past them.
+     */
+    static ByteBuffer view(final ByteBuffer buffer, final int numBytes) {
+        final ByteBuffer result = buffer.slice().order(buffer.order());
+        result.limit(numBytes);
+        buffer.position(buffer.position() + numBytes);
+        return result;
+    }
+
+    /**
+     * Bytes that write will write.
+     */
+    public long sectionBytes() {
+        return 12L + 10L * nodeStarts.limit() + 5L * childKeyBytes.limit();
+    }
 }
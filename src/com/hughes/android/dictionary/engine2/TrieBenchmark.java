@@ -0,0 +1,155 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine2;
+
+import com.hughes.android.dictionary.engine.Dictionary;
+import com.hughes.android.dictionary.engine.Index;
+import com.hughes.android.dictionary.engine.Index.IndexEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Builds a Trie, in both layouts, from each index of an existing (engine)
+ * dictionary, checks they round trip through a mapped section, and times
+ * exact lookups of the index's own tokens against each other and
+ * engine.Index.findInsertionPointIndex.
+ * <p>
+ * Usage: TrieBenchmark file.quickdic [numLookups]
+ */
+final class TrieBenchmark {
+
+    private TrieBenchmark() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final File dictFile = new File(args[0]);
+        final int numLookups = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        final RandomAccessFile raf = new RandomAccessFile(dictFile, "r");
+        try {
+            final Dictionary dict = new Dictionary(raf);
+            for (final Index index : dict.indices) {
+                benchmark(index, numLookups);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void benchmark(final Index index, final int numLookups) throws IOException {
+        final List<String> tokens = new ArrayList<String>();
+        final List<String> normalizedTokens = new ArrayList<String>();
+        for (final IndexEntry indexEntry : index.sortedIndexEntries) {
+            tokens.add(indexEntry.token);
+            normalizedTokens.add(indexEntry.normalizedToken());
+        }
+        if (tokens.isEmpty()) {
+            return;
+        }
+
+        final Random random = new Random(0);
+        final int[] queries = new int[numLookups];
+        final byte[][] queryBytes = new byte[numLookups][];
+        for (int i = 0; i < numLookups; ++i) {
+            queries[i] = random.nextInt(tokens.size());
+            queryBytes[i] = com.hughes.android.dictionary.engine2.Index.toUTF8(normalizedTokens
+                    .get(queries[i]));
+        }
+
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        for (int i = 0; i < numLookups; ++i) {
+            index.findInsertionPointIndex(tokens.get(queries[i]), interrupted);
+        }
+        final long startNanos = System.nanoTime();
+        for (int i = 0; i < numLookups; ++i) {
+            index.findInsertionPointIndex(tokens.get(queries[i]), interrupted);
+        }
+        final long indexNanos = System.nanoTime() - startNanos;
+        System.out.printf("%s: %d tokens, findInsertionPointIndex: %dns/lookup\n",
+                index.shortName, tokens.size(), indexNanos / numLookups);
+
+        benchmarkTrie("sorted children", normalizedTokens, false, queries, queryBytes);
+        benchmarkTrie("double array", normalizedTokens, true, queries, queryBytes);
+    }
+
+    private static void benchmarkTrie(final String name, final List<String> normalizedTokens,
+            final boolean doubleArray, final int[] queries, final byte[][] queryBytes)
+            throws IOException {
+        long startNanos = System.nanoTime();
+        final Trie built = TrieBuilder.build(normalizedTokens, doubleArray);
+        final long buildMillis = (System.nanoTime() - startNanos) / 1000000;
+
+        // Through a real mapping, like it'd be read from a dictionary.
+        final Trie trie = roundTrip(built);
+
+        // Warm up, and check the trie finds the first of each normalized
+        // token.
+        for (int i = 0; i < queries.length; ++i) {
+            final int value = trie.getValue(trie.find(queryBytes[i]));
+            if (value == -1 || !normalizedTokens.get(value).equals(
+                    normalizedTokens.get(queries[i])) || value > queries[i]) {
+                throw new IllegalStateException("Trie lookup failed for: "
+                        + normalizedTokens.get(queries[i]));
+            }
+        }
+
+        startNanos = System.nanoTime();
+        for (int i = 0; i < queries.length; ++i) {
+            trie.getValue(trie.find(queryBytes[i]));
+        }
+        final long trieNanos = System.nanoTime() - startNanos;
+
+        System.out.printf("  %s: %d nodes, %d bytes, built in %dms, %dns/lookup\n", name,
+                trie.numNodes(), trie.sectionBytes(), buildMillis, trieNanos / queries.length);
+    }
+
+    private static Trie roundTrip(final Trie trie) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        trie.write(new DataOutputStream(bytes));
+        if (bytes.size() != trie.sectionBytes()) {
+            throw new IllegalStateException("Wrong section size: " + bytes.size());
+        }
+        final File file = File.createTempFile("trie", ".bin");
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.write(bytes.toByteArray());
+                final MappedByteBuffer mapped = raf.getChannel().map(
+                        FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                final ByteBuffer buffer = mapped;
+                final Trie result = Trie.read(buffer);
+                if (buffer.hasRemaining()) {
+                    throw new IllegalStateException("Section not fully read.");
+                }
+                return result;
+            } finally {
+                raf.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+}
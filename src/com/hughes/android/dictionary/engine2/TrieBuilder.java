@@ -0,0 +1,225 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.dictionary.engine2;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Builds a Trie out of byte keys (e.g. UTF-8 normalized tokens), laid out
+ * breadth first with node 0 the root, and each node's children sorted as
+ * signed bytes, which is what find's binarySearch expects. Or, with
+ * setDoubleArray, the same trie as a DoubleArrayTrie.
+ */
+public final class TrieBuilder {
+
+    private final List<byte[]> keys = new ArrayList<byte[]>();
+    private int[] values = new int[16];
+    // Whether keys came in already sorted (e.g. from an external sort),
+    // which saves build sorting them.
+    private boolean keysSorted = true;
+    private boolean doubleArray = false;
+
+    /**
+     * If the same key is added twice, the first value is the one kept.
+     */
+    public TrieBuilder add(final byte[] key, final int value) {
+        final int size = keys.size();
+        if (keysSorted && size > 0 && compareSigned(keys.get(size - 1), key) > 0) {
+            keysSorted = false;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        keys.add(key);
+        values[size] = value;
+        return this;
+    }
+
+    /**
+     * Whether build makes a DoubleArrayTrie: faster finds, especially for
+     * long keys, at the cost of some unused slots.
+     */
+    public TrieBuilder setDoubleArray(final boolean doubleArray) {
+        this.doubleArray = doubleArray;
+        return this;
+    }
+
+    /**
+     * A Trie where each token's value is its position in tokens.
+     */
+    public static Trie build(final List<String> tokens, final boolean doubleArray) {
+        final TrieBuilder builder = new TrieBuilder().setDoubleArray(doubleArray);
+        for (int i = 0; i < tokens.size(); ++i) {
+            builder.add(Index.toUTF8(tokens.get(i)), i);
+        }
+        return builder.build();
+    }
+
+    public static Trie build(final List<String> tokens) {
+        return build(tokens, false);
+    }
+
+    public Trie build() {
+        final Trie trie = buildSortedChildren();
+        return doubleArray ? DoubleArrayTrie.fromTrie(trie) : trie;
+    }
+
+    private Trie buildSortedChildren() {
+        // Sorting makes each node's keys a contiguous range, and its children
+        // come out in order.
+        final byte[][] sortedKeys = keys.toArray(new byte[keys.size()][]);
+        final int[] sortedValues;
+        if (keysSorted) {
+            sortedValues = values;
+        } else {
+            final int[] order = new int[sortedKeys.length];
+            for (int i = 0; i < order.length; ++i) {
+                order[i] = i;
+            }
+            sortOrder(order, new int[order.length], 0, order.length);
+            sortedValues = new int[order.length];
+            for (int i = 0; i < order.length; ++i) {
+                sortedKeys[i] = keys.get(order[i]);
+                sortedValues[i] = values[order[i]];
+            }
+        }
+
+        // Grown as nodes are added, rather than sized for the worst case of
+        // a node per key byte.
+        final int initialCapacity = Math.max(16, sortedKeys.length + 1);
+        int[] nodeStarts = new int[initialCapacity];
+        short[] nodeLengths = new short[initialCapacity];
+        int[] nodeValues = new int[initialCapacity];
+        byte[] childKeyBytes = new byte[initialCapacity];
+        int[] childNextNodeIndices = new int[initialCapacity];
+        // The range of sortedKeys and the depth of each node, for the
+        // breadth first walk.
+        int[] nodeFrom = new int[initialCapacity];
+        int[] nodeTo = new int[initialCapacity];
+        int[] nodeDepth = new int[initialCapacity];
+
+        int numNodes = 1;
+        int numChildren = 0;
+        nodeFrom[0] = 0;
+        nodeTo[0] = sortedKeys.length;
+        nodeDepth[0] = 0;
+        for (int node = 0; node < numNodes; ++node) {
+            int from = nodeFrom[node];
+            final int to = nodeTo[node];
+            final int depth = nodeDepth[node];
+
+            nodeValues[node] = -1;
+            if (from < to && sortedKeys[from].length == depth) {
+                nodeValues[node] = sortedValues[from];
+            }
+            // Skip the key ending here, and any duplicates of it.
+            while (from < to && sortedKeys[from].length == depth) {
+                ++from;
+            }
+
+            nodeStarts[node] = numChildren;
+            while (from < to) {
+                final byte b = sortedKeys[from][depth];
+                int end = from + 1;
+                while (end < to && sortedKeys[end][depth] == b) {
+                    ++end;
+                }
+                if (numNodes == nodeStarts.length) {
+                    final int capacity = grow(numNodes);
+                    nodeStarts = Arrays.copyOf(nodeStarts, capacity);
+                    nodeLengths = Arrays.copyOf(nodeLengths, capacity);
+                    nodeValues = Arrays.copyOf(nodeValues, capacity);
+                    nodeFrom = Arrays.copyOf(nodeFrom, capacity);
+                    nodeTo = Arrays.copyOf(nodeTo, capacity);
+                    nodeDepth = Arrays.copyOf(nodeDepth, capacity);
+                }
+                if (numChildren == childKeyBytes.length) {
+                    final int capacity = grow(numChildren);
+                    childKeyBytes = Arrays.copyOf(childKeyBytes, capacity);
+                    childNextNodeIndices = Arrays.copyOf(childNextNodeIndices, capacity);
+                }
+                childKeyBytes[numChildren] = b;
+                childNextNodeIndices[numChildren] = numNodes;
+                nodeFrom[numNodes] = from;
+                nodeTo[numNodes] = end;
+                nodeDepth[numNodes] = depth + 1;
+                ++numNodes;
+                ++numChildren;
+                from = end;
+            }
+            nodeLengths[node] = (short) (numChildren - nodeStarts[node]);
+        }
+
+        final Trie trie = new Trie();
+        trie.nodeStarts = IntBuffer.wrap(Arrays.copyOf(nodeStarts, numNodes));
+        trie.nodeLengths = ShortBuffer.wrap(Arrays.copyOf(nodeLengths, numNodes));
+        trie.nodeValues = IntBuffer.wrap(Arrays.copyOf(nodeValues, numNodes));
+        trie.childKeyBytes = ByteBuffer.wrap(Arrays.copyOf(childKeyBytes, numChildren));
+        trie.childNextNodeIndices = IntBuffer.wrap(Arrays.copyOf(childNextNodeIndices,
+                numChildren));
+        return trie;
+    }
+
+    private static int grow(final int capacity) {
+        if (capacity >= Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many trie nodes.");
+        }
+        return (int) Math.min(Integer.MAX_VALUE - 8, capacity + (capacity >> 1) + 1L);
+    }
+
+    /**
+     * Merge sorts order[from, to) by key, using scratch for the merges.
+     * Stable, so the first of equal keys comes first.
+     */
+    private void sortOrder(final int[] order, final int[] scratch, final int from,
+            final int to) {
+        if (to - from < 2) {
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        sortOrder(order, scratch, from, middle);
+        sortOrder(order, scratch, middle, to);
+        if (compareSigned(keys.get(order[middle - 1]), keys.get(order[middle])) <= 0) {
+            return;
+        }
+        System.arraycopy(order, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; ++i) {
+            if (right >= to || (left < middle
+                    && compareSigned(keys.get(scratch[left]), keys.get(scratch[right])) <= 0)) {
+                order[i] = scratch[left++];
+            } else {
+                order[i] = scratch[right++];
+            }
+        }
+    }
+
+    static int compareSigned(final byte[] a, final byte[] b) {
+        final int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; ++i) {
+            if (a[i] != b[i]) {
+                return a[i] < b[i] ? -1 : 1;
+            }
+        }
+        return a.length - b.length;
+    }
+
+}
@@ -1,9 +1,72 @@
 package com.hughes.android.dictionary.engine2;
 
 import com.hughes.android.dictionary.engine.Language;
+import com.hughes.util.raf.RAFListSerializer;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.List;
 
 public class TrieEntry {
+    // Sorted by entryIndex, one per entry, which is what Index.lookup
+    // relies on.
     List<EntryRef> entryRefs;
+
+    // On disk, each EntryRef is its entryIndex and its EntryRefType's
+    // ordinal.
+    static final int ENTRY_REF_BYTES = 5;
+
+    private static final EntryRefType[] ENTRY_REF_TYPES = EntryRefType.values();
+
+    TrieEntry(final List<EntryRef> entryRefs) {
+        this.entryRefs = entryRefs;
+    }
+
+    static final RAFListSerializer<TrieEntry> SERIALIZER = new RAFListSerializer<TrieEntry>() {
+        @Override
+        public TrieEntry read(RandomAccessFile raf, int readIndex) throws IOException {
+            final int size = raf.readInt();
+            final byte[] bytes = new byte[size * ENTRY_REF_BYTES];
+            raf.readFully(bytes);
+            return new TrieEntry(decodeEntryRefs(bytes, 0, size));
+        }
+
+        @Override
+        public void write(RandomAccessFile raf, TrieEntry t) throws IOException {
+            // All at once, rather than a write per field.
+            final byte[] bytes = new byte[4 + t.entryRefs.size() * ENTRY_REF_BYTES];
+            putInt(bytes, 0, t.entryRefs.size());
+            for (int i = 0; i < t.entryRefs.size(); ++i) {
+                encodeEntryRef(t.entryRefs.get(i).entryIndex, t.entryRefs.get(i).entryRefType,
+                        bytes, 4 + i * ENTRY_REF_BYTES);
+            }
+            raf.write(bytes);
+        }
+    };
+
+    static void encodeEntryRef(final int entryIndex, final EntryRefType entryRefType,
+            final byte[] bytes, final int offset) {
+        putInt(bytes, offset, entryIndex);
+        bytes[offset + 4] = (byte) entryRefType.ordinal();
+    }
+
+    static List<EntryRef> decodeEntryRefs(final byte[] bytes, final int offset, final int count) {
+        final List<EntryRef> result = new ArrayList<EntryRef>(count);
+        for (int i = 0; i < count; ++i) {
+            final int start = offset + i * ENTRY_REF_BYTES;
+            final int entryIndex = ((bytes[start] & 0xff) << 24)
+                    | ((bytes[start + 1] & 0xff) << 16) | ((bytes[start + 2] & 0xff) << 8)
+                    | (bytes[start + 3] & 0xff);
+            result.add(new EntryRef(entryIndex, ENTRY_REF_TYPES[bytes[start + 4] & 0xff]));
+        }
+        return result;
+    }
+
+    private static void putInt(final byte[] bytes, final int offset, final int i) {
+        bytes[offset] = (byte) (i >>> 24);
+        bytes[offset + 1] = (byte) (i >>> 16);
+        bytes[offset + 2] = (byte) (i >>> 8);
+        bytes[offset + 3] = (byte) i;
+    }
 }
@@ -0,0 +1,270 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A RandomAccessFile whose writes go to an in-memory buffer, so that writing
+ * field by field (writeInt, writeUTF, ...) isn't a syscall per field. The
+ * file pointer is tracked here, so seeks are free too.
+ * <p>
+ * The buffer covers one window of the file. Small writes outside it, like
+ * RAFList.write going back to fill in its offsets, are held as patches
+ * (adjacent ones coalesced) rather than flushing the buffer, and are
+ * written after it. Reads flush everything first, and aren't buffered.
+ * <p>
+ * writeBytes(String) and writeChars are final in RandomAccessFile and (on
+ * some VMs) don't go through write, so they mustn't be used; nor may
+ * getChannel or getFD, without a flush first.
+ */
+public class BufferedRandomAccessFile extends RandomAccessFile {
+
+    public static final int DEFAULT_BUFFER_BYTES = 1024 * 1024;
+
+    // Bigger writes outside the buffer flush it instead.
+    private static final int MAX_PATCH_WRITE_BYTES = 64;
+    private static final int MAX_PATCHES = 64;
+
+    private final byte[] buffer;
+    // buffer[0, bufferLength) is to be written at bufferStart.
+    private long bufferStart;
+    private int bufferLength = 0;
+    private long position;
+    // How long the file is, counting only what's been flushed.
+    private long flushedLength;
+
+    private final List<Patch> patches = new ArrayList<Patch>();
+    private int patchBytes = 0;
+    // Bounds of all the patches, to quickly rule out overlaps.
+    private long patchesStart = Long.MAX_VALUE;
+    private long patchesEnd = Long.MIN_VALUE;
+
+    private final byte[] singleByte = new byte[1];
+
+    public BufferedRandomAccessFile(final File file, final String mode, final int bufferBytes)
+            throws IOException {
+        super(file, mode);
+        buffer = new byte[bufferBytes];
+        position = super.getFilePointer();
+        bufferStart = position;
+        flushedLength = super.length();
+    }
+
+    public BufferedRandomAccessFile(final File file, final String mode) throws IOException {
+        this(file, mode, DEFAULT_BUFFER_BYTES);
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        singleByte[0] = (byte) b;
+        write(singleByte, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return;
+        }
+        if (bufferLength == 0) {
+            bufferStart = position;
+        }
+        if (!fitsBuffer(len)) {
+            if (len <= MAX_PATCH_WRITE_BYTES && addPatch(b, off, len)) {
+                position += len;
+                return;
+            }
+            flush();
+            if (len > buffer.length) {
+                super.seek(position);
+                super.write(b, off, len);
+                position += len;
+                flushedLength = Math.max(flushedLength, position);
+                bufferStart = position;
+                return;
+            }
+        } else if (overlapsPatches(position, len)) {
+            // The patch is older, so it has to go first.
+            flush();
+        }
+        final int bufferOffset = (int) (position - bufferStart);
+        if (bufferOffset > bufferLength) {
+            // Past the end of the file, which is zeros.
+            Arrays.fill(buffer, bufferLength, bufferOffset, (byte) 0);
+        }
+        System.arraycopy(b, off, buffer, bufferOffset, len);
+        position += len;
+        bufferLength = Math.max(bufferLength, bufferOffset + len);
+    }
+
+    /**
+     * Whether len bytes at position can go in the buffer: they have to be
+     * in its window, and any gap before them past the end of the file.
+     */
+    private boolean fitsBuffer(final int len) {
+        if (position < bufferStart || position + len > bufferStart + buffer.length) {
+            return false;
+        }
+        final long bufferEnd = bufferStart + bufferLength;
+        return position <= bufferEnd || bufferEnd >= flushedLength;
+    }
+
+    private boolean addPatch(final byte[] b, final int off, final int len) {
+        if (patchBytes + len > buffer.length) {
+            return false;
+        }
+        final Patch last = patches.isEmpty() ? null : patches.get(patches.size() - 1);
+        if (last != null && last.position + last.length == position) {
+            last.append(b, off, len);
+        } else if (patches.size() < MAX_PATCHES) {
+            final Patch patch = new Patch(position);
+            patch.append(b, off, len);
+            patches.add(patch);
+        } else {
+            return false;
+        }
+        patchBytes += len;
+        patchesStart = Math.min(patchesStart, position);
+        patchesEnd = Math.max(patchesEnd, position + len);
+        return true;
+    }
+
+    private boolean overlapsPatches(final long start, final int len) {
+        if (start >= patchesEnd || start + len <= patchesStart) {
+            return false;
+        }
+        for (final Patch patch : patches) {
+            if (start < patch.position + patch.length && patch.position < start + len) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes out the buffer, then the patches.
+     */
+    public void flush() throws IOException {
+        if (bufferLength == 0 && patches.isEmpty()) {
+            return;
+        }
+        if (bufferLength > 0) {
+            super.seek(bufferStart);
+            super.write(buffer, 0, bufferLength);
+            flushedLength = Math.max(flushedLength, bufferStart + bufferLength);
+            bufferLength = 0;
+        }
+        for (final Patch patch : patches) {
+            super.seek(patch.position);
+            super.write(patch.bytes, 0, patch.length);
+            flushedLength = Math.max(flushedLength, patch.position + patch.length);
+        }
+        patches.clear();
+        patchBytes = 0;
+        patchesStart = Long.MAX_VALUE;
+        patchesEnd = Long.MIN_VALUE;
+        bufferStart = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        flush();
+        super.seek(position);
+        final int result = super.read();
+        position = bufferStart = super.getFilePointer();
+        return result;
+    }
+
+    @Override
+    public int read(final byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        flush();
+        super.seek(position);
+        final int result = super.read(b, off, len);
+        position = bufferStart = super.getFilePointer();
+        return result;
+    }
+
+    @Override
+    public long getFilePointer() {
+        return position;
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("Negative seek offset: " + pos);
+        }
+        position = pos;
+    }
+
+    @Override
+    public long length() {
+        return Math.max(Math.max(flushedLength, bufferStart + bufferLength), patchesEnd);
+    }
+
+    @Override
+    public void setLength(final long newLength) throws IOException {
+        flush();
+        super.setLength(newLength);
+        flushedLength = newLength;
+        position = bufferStart = Math.min(position, newLength);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            super.close();
+        }
+    }
+
+    private static final class Patch {
+        final long position;
+        byte[] bytes = new byte[16];
+        int length = 0;
+
+        Patch(final long position) {
+            this.position = position;
+        }
+
+        void append(final byte[] b, final int off, final int len) {
+            if (length + len > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(length + len, 2 * bytes.length));
+            }
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+    }
+
+}
@@ -0,0 +1,342 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more records than fit in memory: records are buffered up to a limit,
+ * then sorted and spilled to a temp file (a "run"), and once they're all in,
+ * the runs are merged k ways as the sorted records are read back.
+ * <p>
+ * Memory use is maxRecordsInMemory records plus a read buffer for each run
+ * being merged (at most MAX_MERGE_WIDTH of them; beyond that, runs are
+ * merged in levels, MAX_MERGE_WIDTH at a time, so each record is rewritten
+ * once per level). The sort is stable.
+ */
+public final class ExternalSorter<T> {
+
+    /**
+     * How records are written to and read back from runs.
+     */
+    public interface Codec<T> {
+        void write(T record, DataOutput out) throws IOException;
+
+        T read(DataInput in) throws IOException;
+    }
+
+    /**
+     * The sorted records, read as they're merged. Closing it deletes the
+     * runs.
+     */
+    public interface Records<T> extends Closeable {
+        boolean hasNext();
+
+        T next() throws IOException;
+    }
+
+    static final int MAX_MERGE_WIDTH = 64;
+    private static final int RUN_BUFFER_BYTES = 64 * 1024;
+
+    private final Comparator<? super T> comparator;
+    private final Codec<T> codec;
+    private final int maxRecordsInMemory;
+    private final File tempDir;
+
+    private final List<T> buffer = new ArrayList<T>();
+    // In the order they were spilled, which keeps the merge stable.
+    private final List<Run> runs = new ArrayList<Run>();
+    private long numRecords = 0;
+    private boolean sorted = false;
+
+    /**
+     * @param tempDir where runs go, or null for the default temp dir.
+     */
+    public ExternalSorter(final Comparator<? super T> comparator, final Codec<T> codec,
+            final int maxRecordsInMemory, final File tempDir) {
+        if (maxRecordsInMemory < 1) {
+            throw new IllegalArgumentException("maxRecordsInMemory: " + maxRecordsInMemory);
+        }
+        this.comparator = comparator;
+        this.codec = codec;
+        this.maxRecordsInMemory = maxRecordsInMemory;
+        this.tempDir = tempDir;
+    }
+
+    public void add(final T record) throws IOException {
+        if (sorted) {
+            throw new IllegalStateException("Already sorted.");
+        }
+        buffer.add(record);
+        ++numRecords;
+        if (buffer.size() >= maxRecordsInMemory) {
+            spill();
+        }
+    }
+
+    public long size() {
+        return numRecords;
+    }
+
+    public int numRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Everything added, in order. Nothing can be added afterwards.
+     */
+    public Records<T> sort() throws IOException {
+        if (sorted) {
+            throw new IllegalStateException("Already sorted.");
+        }
+        sorted = true;
+        if (runs.isEmpty()) {
+            // It all fit.
+            Collections.sort(buffer, comparator);
+            return new BufferRecords();
+        }
+        spill();
+        while (runs.size() > MAX_MERGE_WIDTH) {
+            mergeLevel();
+        }
+        final MergedRecords records = new MergedRecords(new ArrayList<Run>(runs));
+        runs.clear();
+        return records;
+    }
+
+    /**
+     * Deletes any runs, if the records are abandoned before sort.
+     */
+    public void discard() {
+        for (final Run run : runs) {
+            run.file.delete();
+        }
+        runs.clear();
+        buffer.clear();
+    }
+
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        Collections.sort(buffer, comparator);
+        final Run run = new Run(File.createTempFile("sort", ".run", tempDir), buffer.size());
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(run.file), RUN_BUFFER_BYTES));
+        try {
+            for (final T record : buffer) {
+                codec.write(record, out);
+            }
+        } finally {
+            out.close();
+        }
+        runs.add(run);
+        buffer.clear();
+    }
+
+    /**
+     * Merges each consecutive group of MAX_MERGE_WIDTH runs into one, which
+     * keeps them in order, and so the sort stable.
+     */
+    private void mergeLevel() throws IOException {
+        final List<Run> nextLevel = new ArrayList<Run>();
+        try {
+            for (int i = 0; i < runs.size(); i += MAX_MERGE_WIDTH) {
+                final List<Run> group = runs.subList(i, Math.min(runs.size(),
+                        i + MAX_MERGE_WIDTH));
+                nextLevel.add(group.size() == 1 ? group.get(0)
+                        : mergeRuns(new ArrayList<Run>(group)));
+            }
+        } catch (IOException e) {
+            // The runs not merged yet are still in runs, for discard.
+            for (final Run run : nextLevel) {
+                if (!runs.contains(run)) {
+                    run.file.delete();
+                }
+            }
+            throw e;
+        }
+        runs.clear();
+        runs.addAll(nextLevel);
+    }
+
+    private Run mergeRuns(final List<Run> toMerge) throws IOException {
+        long count = 0;
+        for (final Run run : toMerge) {
+            count += run.count;
+        }
+        final Run merged = new Run(File.createTempFile("sort", ".run", tempDir), count);
+        final MergedRecords records = new MergedRecords(toMerge);
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(merged.file), RUN_BUFFER_BYTES));
+            try {
+                while (records.hasNext()) {
+                    codec.write(records.next(), out);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            merged.file.delete();
+            throw e;
+        } finally {
+            records.close();
+        }
+        return merged;
+    }
+
+    private static final class Run {
+        final File file;
+        final long count;
+
+        Run(final File file, final long count) {
+            this.file = file;
+            this.count = count;
+        }
+    }
+
+    private final class BufferRecords implements Records<T> {
+        int next = 0;
+
+        @Override
+        public boolean hasNext() {
+            return next < buffer.size();
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return buffer.get(next++);
+        }
+
+        @Override
+        public void close() {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * A run being read, positioned at its next record.
+     */
+    private final class RunReader {
+        final Run run;
+        final int order;
+        final DataInputStream in;
+        long remaining;
+        T head;
+
+        RunReader(final Run run, final int order) throws IOException {
+            this.run = run;
+            this.order = order;
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file),
+                    RUN_BUFFER_BYTES));
+            remaining = run.count;
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                head = null;
+                return false;
+            }
+            head = codec.read(in);
+            --remaining;
+            return true;
+        }
+    }
+
+    private final class MergedRecords implements Records<T> {
+        final List<Run> toMerge;
+        final List<RunReader> readers = new ArrayList<RunReader>();
+        final PriorityQueue<RunReader> queue;
+
+        MergedRecords(final List<Run> toMerge) throws IOException {
+            this.toMerge = toMerge;
+            queue = new PriorityQueue<RunReader>(Math.max(1, toMerge.size()),
+                    new Comparator<RunReader>() {
+                        @Override
+                        public int compare(RunReader a, RunReader b) {
+                            final int result = comparator.compare(a.head, b.head);
+                            // Ties go to the earlier run.
+                            return result != 0 ? result : a.order - b.order;
+                        }
+                    });
+            try {
+                for (int i = 0; i < toMerge.size(); ++i) {
+                    final RunReader reader = new RunReader(toMerge.get(i), i);
+                    readers.add(reader);
+                    if (reader.advance()) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public T next() throws IOException {
+            final RunReader reader = queue.poll();
+            if (reader == null) {
+                throw new NoSuchElementException();
+            }
+            final T result = reader.head;
+            if (reader.advance()) {
+                queue.add(reader);
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            queue.clear();
+            for (final RunReader reader : readers) {
+                try {
+                    reader.in.close();
+                } catch (IOException e) {
+                    System.out.println("Failed to close run: " + reader.run.file);
+                }
+            }
+            for (final Run run : toMerge) {
+                run.file.delete();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,434 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * rsync-style binary delta between two versions of a file: the new file is
+ * described as COPYs of blocks of the old file (from any offset, so moved
+ * sections cost nothing) and INSERTs of new bytes.
+ * <p>
+ * Format: MAGIC, name (UTF), blockSize, sourceLength, targetLength,
+ * targetCrc, then ops until END. Both creating and applying stream through
+ * bounded buffers.
+ */
+public final class FileDelta {
+
+    public static final String DELTA_SUFFIX = ".delta";
+
+    private static final int MAGIC = 0x51444454; // "QDDT"
+    private static final int VERSION = 1;
+
+    private static final byte OP_END = 0;
+    private static final byte OP_COPY = 1;
+    private static final byte OP_INSERT = 2;
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    private static final int MAX_INSERT_BYTES = 64 * 1024;
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private FileDelta() {
+    }
+
+    public static final class Header {
+        public final String name;
+        public final int blockSize;
+        public final long sourceLength;
+        public final long targetLength;
+        public final long targetCrc;
+
+        Header(final String name, final int blockSize, final long sourceLength,
+                final long targetLength, final long targetCrc) {
+            this.name = name;
+            this.blockSize = blockSize;
+            this.sourceLength = sourceLength;
+            this.targetLength = targetLength;
+            this.targetCrc = targetCrc;
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    // Creating.
+
+    /**
+     * Writes the delta that turns source into target.
+     *
+     * @param name what the delta is for (e.g. the dictionary's filename), so
+     *            it can be matched up when applied.
+     */
+    public static void create(final RandomAccessFile source, final RandomAccessFile target,
+            final String name, final int blockSize, final OutputStream deltaOut)
+            throws IOException {
+        final Map<Integer, int[]> weakToBlocks = new HashMap<Integer, int[]>();
+        final byte[][] strongHashes = indexBlocks(source, blockSize, weakToBlocks);
+
+        final DataOutputStream out = new DataOutputStream(deltaOut);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(name);
+        out.writeInt(blockSize);
+        out.writeLong(source.length());
+        out.writeLong(target.length());
+        out.writeLong(crcOf(target));
+
+        final TargetScanner scanner = new TargetScanner(target, blockSize, out);
+        final byte[] sourceBlock = new byte[blockSize];
+        while (scanner.hasFullWindow()) {
+            final int[] candidates = weakToBlocks.get(scanner.weakChecksum());
+            int match = -1;
+            if (candidates != null) {
+                final byte[] strong = scanner.strongHash();
+                for (final int block : candidates) {
+                    if (Arrays.equals(strong, strongHashes[block])) {
+                        // Make sure, hashes aren't everything.
+                        source.seek((long) block * blockSize);
+                        source.readFully(sourceBlock);
+                        if (scanner.windowEquals(sourceBlock)) {
+                            match = block;
+                            break;
+                        }
+                    }
+                }
+            }
+            if (match != -1) {
+                scanner.copy((long) match * blockSize);
+            } else {
+                scanner.advanceLiteral();
+            }
+        }
+        scanner.finish();
+        out.writeByte(OP_END);
+        out.flush();
+    }
+
+    private static byte[][] indexBlocks(final RandomAccessFile source, final int blockSize,
+            final Map<Integer, int[]> weakToBlocks) throws IOException {
+        final int numBlocks = (int) (source.length() / blockSize);
+        final byte[][] strongHashes = new byte[numBlocks][];
+        final MessageDigest md5 = newMd5();
+        final byte[] block = new byte[blockSize];
+        source.seek(0);
+        for (int i = 0; i < numBlocks; ++i) {
+            source.readFully(block);
+            strongHashes[i] = md5.digest(block);
+            final int weak = RollingChecksum.of(block, 0, blockSize);
+            final int[] existing = weakToBlocks.get(weak);
+            if (existing == null) {
+                weakToBlocks.put(weak, new int[] { i });
+            } else if (!Arrays.equals(strongHashes[existing[0]], strongHashes[i])) {
+                // Identical blocks only need to be found once.
+                final int[] blocks = Arrays.copyOf(existing, existing.length + 1);
+                blocks[existing.length] = i;
+                weakToBlocks.put(weak, blocks);
+            }
+        }
+        return strongHashes;
+    }
+
+    /**
+     * Slides a blockSize window over the target through a bounded buffer,
+     * emitting COPY and INSERT ops as it goes.
+     */
+    private static final class TargetScanner {
+        final RandomAccessFile target;
+        final int blockSize;
+        final DataOutputStream out;
+        final MessageDigest md5 = newMd5();
+
+        final byte[] buffer;
+        long bufferStart = 0; // target offset of buffer[0]
+        int bufferLength = 0;
+        long pos = 0; // start of the window
+        long literalStart = 0;
+        final RollingChecksum checksum;
+        boolean checksumValid = false;
+
+        // Merged into one op while COPYs are contiguous.
+        long pendingCopyFrom = -1;
+        int pendingCopyLength = 0;
+
+        TargetScanner(final RandomAccessFile target, final int blockSize,
+                final DataOutputStream out) throws IOException {
+            this.target = target;
+            this.blockSize = blockSize;
+            this.out = out;
+            buffer = new byte[MAX_INSERT_BYTES + 2 * blockSize];
+            checksum = new RollingChecksum(blockSize);
+            target.seek(0);
+        }
+
+        boolean hasFullWindow() throws IOException {
+            return fill(pos + blockSize);
+        }
+
+        int weakChecksum() {
+            if (!checksumValid) {
+                checksum.reset(buffer, (int) (pos - bufferStart));
+                checksumValid = true;
+            }
+            return checksum.value();
+        }
+
+        byte[] strongHash() {
+            md5.reset();
+            md5.update(buffer, (int) (pos - bufferStart), blockSize);
+            return md5.digest();
+        }
+
+        boolean windowEquals(final byte[] block) {
+            final int offset = (int) (pos - bufferStart);
+            for (int i = 0; i < blockSize; ++i) {
+                if (buffer[offset + i] != block[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void copy(final long sourceOffset) throws IOException {
+            flushLiteral();
+            if (pendingCopyFrom != -1 && pendingCopyFrom + pendingCopyLength == sourceOffset
+                    && pendingCopyLength <= Integer.MAX_VALUE - blockSize) {
+                pendingCopyLength += blockSize;
+            } else {
+                flushCopy();
+                pendingCopyFrom = sourceOffset;
+                pendingCopyLength = blockSize;
+            }
+            pos += blockSize;
+            literalStart = pos;
+            checksumValid = false;
+        }
+
+        void advanceLiteral() throws IOException {
+            if (pos - literalStart == MAX_INSERT_BYTES) {
+                flushLiteral();
+            }
+            if (fill(pos + blockSize + 1)) {
+                weakChecksum();
+                // After fill, which may have moved things.
+                final int offset = (int) (pos - bufferStart);
+                checksum.roll(buffer[offset], buffer[offset + blockSize]);
+            } else {
+                checksumValid = false;
+            }
+            ++pos;
+        }
+
+        void finish() throws IOException {
+            // Whatever is left is shorter than a block.
+            fill(target.length());
+            pos = bufferStart + bufferLength;
+            flushLiteral();
+            flushCopy();
+        }
+
+        private void flushLiteral() throws IOException {
+            if (pos == literalStart) {
+                return;
+            }
+            flushCopy();
+            out.writeByte(OP_INSERT);
+            out.writeInt((int) (pos - literalStart));
+            out.write(buffer, (int) (literalStart - bufferStart), (int) (pos - literalStart));
+            literalStart = pos;
+        }
+
+        private void flushCopy() throws IOException {
+            if (pendingCopyFrom == -1) {
+                return;
+            }
+            out.writeByte(OP_COPY);
+            out.writeLong(pendingCopyFrom);
+            out.writeInt(pendingCopyLength);
+            pendingCopyFrom = -1;
+            pendingCopyLength = 0;
+        }
+
+        /**
+         * Makes sure the buffer holds the target up to end (if the target is
+         * that long), keeping everything from literalStart on.
+         */
+        private boolean fill(final long end) throws IOException {
+            if (end <= bufferStart + bufferLength) {
+                return true;
+            }
+            final int keepFrom = (int) (literalStart - bufferStart);
+            System.arraycopy(buffer, keepFrom, buffer, 0, bufferLength - keepFrom);
+            bufferStart += keepFrom;
+            bufferLength -= keepFrom;
+            while (bufferLength < buffer.length) {
+                final int read = target.read(buffer, bufferLength, buffer.length - bufferLength);
+                if (read == -1) {
+                    break;
+                }
+                bufferLength += read;
+            }
+            return end <= bufferStart + bufferLength;
+        }
+    }
+
+    /**
+     * rsync's weak checksum, which can be rolled along one byte at a time.
+     */
+    static final class RollingChecksum {
+        final int blockSize;
+        int a;
+        int b;
+
+        RollingChecksum(final int blockSize) {
+            this.blockSize = blockSize;
+        }
+
+        static int of(final byte[] bytes, final int offset, final int length) {
+            final RollingChecksum result = new RollingChecksum(length);
+            result.reset(bytes, offset);
+            return result.value();
+        }
+
+        void reset(final byte[] bytes, final int offset) {
+            a = 0;
+            b = 0;
+            for (int i = 0; i < blockSize; ++i) {
+                final int x = bytes[offset + i] & 0xff;
+                a += x;
+                b += (blockSize - i) * x;
+            }
+            a &= 0xffff;
+            b &= 0xffff;
+        }
+
+        void roll(final byte out, final byte in) {
+            final int x = out & 0xff;
+            a = (a - x + (in & 0xff)) & 0xffff;
+            b = (b - blockSize * x + a) & 0xffff;
+        }
+
+        int value() {
+            return (b << 16) | a;
+        }
+    }
+
+    // ----------------------------------------------------------------------
+    // Applying.
+
+    public static Header readHeader(final DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a delta.");
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported delta version: " + version);
+        }
+        return new Header(in.readUTF(), in.readInt(), in.readLong(), in.readLong(),
+                in.readLong());
+    }
+
+    /**
+     * Writes the target of the delta to targetOut, reading what it copies
+     * from source, and checks its CRC at the end.
+     *
+     * @param in positioned just past the header.
+     */
+    public static void apply(final Header header, final RandomAccessFile source,
+            final DataInputStream in, final OutputStream targetOut) throws IOException {
+        if (source.length() != header.sourceLength) {
+            throw new IOException("Delta is for a different file: " + source.length()
+                    + " != " + header.sourceLength);
+        }
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        long targetLength = 0;
+        while (true) {
+            final byte op = in.readByte();
+            if (op == OP_END) {
+                break;
+            } else if (op == OP_COPY) {
+                final long from = in.readLong();
+                int remaining = in.readInt();
+                if (from < 0 || remaining < 0 || from + remaining > header.sourceLength) {
+                    throw new IOException("Bad copy: " + from + ", " + remaining);
+                }
+                source.seek(from);
+                while (remaining > 0) {
+                    final int length = Math.min(remaining, buffer.length);
+                    source.readFully(buffer, 0, length);
+                    crc.update(buffer, 0, length);
+                    targetOut.write(buffer, 0, length);
+                    remaining -= length;
+                    targetLength += length;
+                }
+            } else if (op == OP_INSERT) {
+                int remaining = in.readInt();
+                if (remaining < 0) {
+                    throw new IOException("Bad insert: " + remaining);
+                }
+                while (remaining > 0) {
+                    final int length = Math.min(remaining, buffer.length);
+                    in.readFully(buffer, 0, length);
+                    crc.update(buffer, 0, length);
+                    targetOut.write(buffer, 0, length);
+                    remaining -= length;
+                    targetLength += length;
+                }
+            } else {
+                throw new IOException("Bad delta op: " + op);
+            }
+        }
+        if (targetLength != header.targetLength || crc.getValue() != header.targetCrc) {
+            throw new IOException("Delta produced the wrong file: " + targetLength + " bytes.");
+        }
+    }
+
+    public static void apply(final RandomAccessFile source, final InputStream deltaIn,
+            final OutputStream targetOut) throws IOException {
+        final DataInputStream in = new DataInputStream(deltaIn);
+        apply(readHeader(in), source, in, targetOut);
+    }
+
+    // ----------------------------------------------------------------------
+
+    private static long crcOf(final RandomAccessFile raf) throws IOException {
+        final CRC32 crc = new CRC32();
+        final byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        raf.seek(0);
+        int read;
+        while ((read = raf.read(buffer)) != -1) {
+            crc.update(buffer, 0, read);
+        }
+        return crc.getValue();
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round trips a delta the way an update does: creates it from the old and
+ * new file (the server's side), then applies it to the old file from a local
+ * delta file (standing in for the download), checks the result is the new
+ * file, and reports the delta's size and both times.
+ * <p>
+ * Without files, uses a synthetic old file and a new one made from it with
+ * small edits, a moved section and a new tail.
+ * <p>
+ * Usage: FileDeltaBenchmark [old.quickdic new.quickdic]
+ */
+final class FileDeltaBenchmark {
+
+    private static final int SYNTHETIC_BYTES = 8 * 1024 * 1024;
+
+    private FileDeltaBenchmark() {
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final File[] tempFiles = new File[2];
+        final File oldFile;
+        final File newFile;
+        if (args.length >= 2) {
+            oldFile = new File(args[0]);
+            newFile = new File(args[1]);
+        } else {
+            oldFile = tempFiles[0] = File.createTempFile("old", ".quickdic");
+            newFile = tempFiles[1] = File.createTempFile("new", ".quickdic");
+            createSynthetic(oldFile, newFile);
+        }
+        final File deltaFile = File.createTempFile("update", FileDelta.DELTA_SUFFIX);
+        final File appliedFile = File.createTempFile("applied", ".quickdic");
+        try {
+            long start = System.nanoTime();
+            final RandomAccessFile source = new RandomAccessFile(oldFile, "r");
+            final RandomAccessFile target = new RandomAccessFile(newFile, "r");
+            final OutputStream deltaOut = new BufferedOutputStream(new FileOutputStream(
+                    deltaFile));
+            try {
+                FileDelta.create(source, target, newFile.getName(),
+                        FileDelta.DEFAULT_BLOCK_SIZE, deltaOut);
+            } finally {
+                deltaOut.close();
+                target.close();
+                source.close();
+            }
+            final long createMillis = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(deltaFile)));
+            final RandomAccessFile applySource = new RandomAccessFile(oldFile, "r");
+            final OutputStream appliedOut = new BufferedOutputStream(new FileOutputStream(
+                    appliedFile));
+            try {
+                final FileDelta.Header header = FileDelta.readHeader(in);
+                FileDelta.apply(header, applySource, in, appliedOut);
+            } finally {
+                appliedOut.close();
+                applySource.close();
+                in.close();
+            }
+            final long applyMillis = (System.nanoTime() - start) / 1000000;
+
+            if (!Arrays.equals(readFully(newFile), readFully(appliedFile))) {
+                throw new IllegalStateException("Applied delta differs from the new file.");
+            }
+            System.out.println("old: " + oldFile.length() + " bytes, new: " + newFile.length()
+                    + " bytes");
+            System.out.println("delta: " + deltaFile.length() + " bytes ("
+                    + (100 * deltaFile.length() / Math.max(1, newFile.length()))
+                    + "% of new)");
+            System.out.println("create: " + createMillis + "ms, apply: " + applyMillis + "ms");
+        } finally {
+            deltaFile.delete();
+            appliedFile.delete();
+            for (final File tempFile : tempFiles) {
+                if (tempFile != null) {
+                    tempFile.delete();
+                }
+            }
+        }
+    }
+
+    private static void createSynthetic(final File oldFile, final File newFile)
+            throws IOException {
+        final Random random = new Random(0);
+        final byte[] oldBytes = new byte[SYNTHETIC_BYTES];
+        random.nextBytes(oldBytes);
+        writeFully(oldFile, oldBytes);
+
+        final byte[] newBytes = Arrays.copyOf(oldBytes, oldBytes.length + 64 * 1024);
+        // Small edits scattered through it.
+        for (int i = 0; i < 100; ++i) {
+            final int offset = random.nextInt(oldBytes.length - 16);
+            for (int j = 0; j < 16; ++j) {
+                newBytes[offset + j] = (byte) random.nextInt();
+            }
+        }
+        // A section moved from the end to the start.
+        final int moved = 256 * 1024;
+        System.arraycopy(oldBytes, oldBytes.length - moved, newBytes, 0, moved);
+        // And a new tail.
+        for (int i = oldBytes.length; i < newBytes.length; ++i) {
+            newBytes[i] = (byte) random.nextInt();
+        }
+        writeFully(newFile, newBytes);
+    }
+
+    private static void writeFully(final File file, final byte[] bytes) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readFully(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+
+}
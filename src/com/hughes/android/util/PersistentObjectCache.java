@@ -18,19 +18,62 @@ import android.content.Context;
 import android.os.Environment;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Objects kept in memory and persisted to files in the background: a write
+ * is encoded right away (so later changes to the object don't race with it),
+ * and written a little later by a worker thread, to a temp file that's
+ * synced and then renamed over the old one. Writes of the same file that
+ * pile up in the meantime are coalesced into one.
+ */
 public class PersistentObjectCache {
 
+    // How long a write waits for more writes of the same file.
+    private static final long WRITE_DELAY_MILLIS = 250;
+
+    /**
+     * Explicit binary encoding, smaller and much faster to read than Java
+     * serialization.
+     */
+    public interface Codec<T> {
+        void write(T object, DataOutput out) throws IOException;
+
+        T read(DataInput in) throws IOException;
+    }
+
     private final File dir;
     private final Map<String, Object> objects = new LinkedHashMap<String, Object>();
 
+    // Encoded bytes waiting to be written, by filename.
+    private final Map<String, byte[]> pendingWrites = new HashMap<String, byte[]>();
+
+    private final ScheduledExecutorService writeExecutor = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "writeExecutor");
+                }
+            });
+
     public synchronized <T> T read(final String filename, final Class<T> resultClass) {
         try {
             Object object = (objects.get(filename));
@@ -58,15 +101,102 @@ public class PersistentObjectCache {
         }
     }
 
+    public synchronized <T> T read(final String filename, final Codec<T> codec) {
+        Object object = objects.get(filename);
+        if (object != null) {
+            // Only ever put there by write with the same codec.
+            @SuppressWarnings("unchecked")
+            final T result = (T) object;
+            return result;
+        }
+        final File src = new File(dir, filename);
+        if (!src.canRead()) {
+            Log.d(getClass().getSimpleName(), "File empty: " + src);
+            return null;
+        }
+        final T result;
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(src)));
+            try {
+                result = codec.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            Log.e(getClass().getSimpleName(), "Decoding failed: " + src, e);
+            return null;
+        }
+        objects.put(filename, result);
+        return result;
+    }
+
     public synchronized void write(final String filename, final Object object) {
         objects.put(filename, object);
-        final File dest = new File(dir, filename);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
         try {
-            final ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(dest));
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
             out.writeObject(object);
             out.close();
         } catch (Exception e) {
-            Log.e(getClass().getSimpleName(), "Serialization failed: " + dest, e);
+            Log.e(getClass().getSimpleName(), "Serialization failed: " + filename, e);
+            return;
+        }
+        scheduleWrite(filename, bytes.toByteArray());
+    }
+
+    public synchronized <T> void write(final String filename, final T object,
+            final Codec<T> codec) {
+        objects.put(filename, object);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            final DataOutputStream out = new DataOutputStream(bytes);
+            codec.write(object, out);
+            out.close();
+        } catch (Exception e) {
+            Log.e(getClass().getSimpleName(), "Encoding failed: " + filename, e);
+            return;
+        }
+        scheduleWrite(filename, bytes.toByteArray());
+    }
+
+    private void scheduleWrite(final String filename, final byte[] bytes) {
+        if (pendingWrites.put(filename, bytes) != null) {
+            // Already scheduled, and will pick up these bytes instead.
+            return;
+        }
+        writeExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                writeNow(filename);
+            }
+        }, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeNow(final String filename) {
+        final byte[] bytes;
+        synchronized (this) {
+            bytes = pendingWrites.remove(filename);
+        }
+        if (bytes == null) {
+            return;
+        }
+        final File dest = new File(dir, filename);
+        final File temp = new File(dir, filename + ".tmp");
+        try {
+            final FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(bytes);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(dest)) {
+                throw new IOException("Unable to rename " + temp + " to " + dest);
+            }
+        } catch (IOException e) {
+            Log.e(getClass().getSimpleName(), "Write failed: " + dest, e);
+            temp.delete();
         }
     }
 
@@ -0,0 +1,255 @@
+// Copyright 2011 Google Inc. All Rights Reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.hughes.android.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A RandomAccessFile over the data of one STORED (uncompressed) entry of a
+ * zip file, so the entry can be read in place, without unzipping it.
+ * Positions and length are relative to the start of the entry's data, and
+ * reads stop at its end. getChannel (which is final) isn't: its positions
+ * are in the whole zip, so use map rather than mapping the channel.
+ * <p>
+ * Doesn't do zip64, which is fine for anything under 4GB.
+ */
+public class ZipEntryRandomAccessFile extends RandomAccessFile {
+
+    public static final String ZIP_SUFFIX = ".zip";
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_BYTES = 22;
+    private static final int MAX_COMMENT_BYTES = 0xffff;
+    private static final int LOCAL_FILE_HEADER_BYTES = 30;
+    private static final int METHOD_STORED = 0;
+
+    private final long dataOffset;
+    private final long dataLength;
+    // Relative to dataOffset, kept here rather than asked of the file, which
+    // would be an lseek per read. Every read and seek goes through the
+    // overrides below, which keep it up to date.
+    private long position = 0;
+
+    /**
+     * @param entryName the entry to read, or null for the first one.
+     */
+    public ZipEntryRandomAccessFile(final File zipFile, final String entryName)
+            throws IOException {
+        this(zipFile, findStoredEntry(zipFile, entryName));
+    }
+
+    private ZipEntryRandomAccessFile(final File zipFile, final long[] offsetAndLength)
+            throws IOException {
+        super(zipFile, "r");
+        dataOffset = offsetAndLength[0];
+        dataLength = offsetAndLength[1];
+        super.seek(dataOffset);
+    }
+
+    /**
+     * Opens file for reading, going through its first entry if it's a zip.
+     */
+    public static RandomAccessFile open(final File file) throws IOException {
+        if (file.getName().endsWith(ZIP_SUFFIX)) {
+            return new ZipEntryRandomAccessFile(file, (String) null);
+        }
+        return new RandomAccessFile(file, "r");
+    }
+
+    /**
+     * The name of the file that open reads, e.g. foo.quickdic for
+     * foo.quickdic.zip.
+     */
+    public static String unzippedName(final File file) {
+        final String name = file.getName();
+        return name.endsWith(ZIP_SUFFIX) ? name.substring(0, name.length() - ZIP_SUFFIX.length())
+                : name;
+    }
+
+    /**
+     * Maps size bytes of raf's data from position, which for a
+     * ZipEntryRandomAccessFile is relative to the entry's data.
+     */
+    public static MappedByteBuffer map(final RandomAccessFile raf, final long position,
+            final long size) throws IOException {
+        if (raf instanceof ZipEntryRandomAccessFile) {
+            return ((ZipEntryRandomAccessFile) raf).map(position, size);
+        }
+        return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    public MappedByteBuffer map(final long position, final long size) throws IOException {
+        if (position < 0 || size < 0 || position + size > dataLength) {
+            throw new IOException("Mapping " + position + "+" + size + " past the end of "
+                    + dataLength + " bytes.");
+        }
+        return super.getChannel().map(FileChannel.MapMode.READ_ONLY, dataOffset + position,
+                size);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= dataLength) {
+            return -1;
+        }
+        final int result = super.read();
+        if (result != -1) {
+            ++position;
+        }
+        return result;
+    }
+
+    @Override
+    public int read(final byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final long remaining = dataLength - position;
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining <= 0) {
+            return -1;
+        }
+        final int read = super.read(b, off, (int) Math.min(len, remaining));
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+        if (pos < 0) {
+            throw new IOException("Negative seek offset: " + pos);
+        }
+        super.seek(dataOffset + pos);
+        position = pos;
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        return position;
+    }
+
+    @Override
+    public long length() throws IOException {
+        return dataLength;
+    }
+
+    /**
+     * Finds the entry in the central directory, checks that it's STORED, and
+     * follows it to its local header, after which the data starts.
+     */
+    private static long[] findStoredEntry(final File zipFile, final String entryName)
+            throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(zipFile, "r");
+        try {
+            final long endOfCentralDirectory = findEndOfCentralDirectory(raf);
+            raf.seek(endOfCentralDirectory + 10);
+            final int numEntries = readUnsignedShortLE(raf);
+            raf.skipBytes(4); // central directory size
+            final long centralDirectoryOffset = readUnsignedIntLE(raf);
+
+            raf.seek(centralDirectoryOffset);
+            for (int i = 0; i < numEntries; ++i) {
+                if (readIntLE(raf) != CENTRAL_DIRECTORY_SIGNATURE) {
+                    throw new IOException("Bad central directory in: " + zipFile);
+                }
+                raf.skipBytes(6); // versions, flags
+                final int method = readUnsignedShortLE(raf);
+                raf.skipBytes(8); // time, date, crc
+                final long compressedSize = readUnsignedIntLE(raf);
+                final long size = readUnsignedIntLE(raf);
+                final int nameLength = readUnsignedShortLE(raf);
+                final int extraLength = readUnsignedShortLE(raf);
+                final int commentLength = readUnsignedShortLE(raf);
+                raf.skipBytes(8); // disk, attributes
+                final long localHeaderOffset = readUnsignedIntLE(raf);
+                final byte[] nameBytes = new byte[nameLength];
+                raf.readFully(nameBytes);
+                raf.skipBytes(extraLength + commentLength);
+
+                final String name = new String(nameBytes, "UTF-8");
+                if (entryName != null && !entryName.equals(name)) {
+                    continue;
+                }
+                if (method != METHOD_STORED || compressedSize != size) {
+                    throw new IOException("Zip entry isn't stored: " + name);
+                }
+                if (size == 0xffffffffL || localHeaderOffset == 0xffffffffL) {
+                    throw new IOException("Zip64 isn't supported: " + name);
+                }
+
+                raf.seek(localHeaderOffset);
+                if (readIntLE(raf) != LOCAL_FILE_HEADER_SIGNATURE) {
+                    throw new IOException("Bad local header for: " + name);
+                }
+                raf.seek(localHeaderOffset + 26);
+                final int localNameLength = readUnsignedShortLE(raf);
+                final int localExtraLength = readUnsignedShortLE(raf);
+                return new long[] {
+                        localHeaderOffset + LOCAL_FILE_HEADER_BYTES + localNameLength
+                                + localExtraLength, size };
+            }
+            throw new IOException("No entry " + (entryName != null ? entryName : "at all")
+                    + " in: " + zipFile);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static long findEndOfCentralDirectory(final RandomAccessFile raf) throws IOException {
+        // It's at the very end, unless there's a comment after it.
+        final long fileLength = raf.length();
+        final long searchStart = Math.max(0, fileLength - END_OF_CENTRAL_DIRECTORY_BYTES
+                - MAX_COMMENT_BYTES);
+        final byte[] tail = new byte[(int) (fileLength - searchStart)];
+        raf.seek(searchStart);
+        raf.readFully(tail);
+        for (int i = tail.length - END_OF_CENTRAL_DIRECTORY_BYTES; i >= 0; --i) {
+            if (intLE(tail, i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return searchStart + i;
+            }
+        }
+        throw new IOException("Not a zip file.");
+    }
+
+    private static int intLE(final byte[] bytes, final int i) {
+        return (bytes[i] & 0xff) | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff) << 16
+                | (bytes[i + 3] & 0xff) << 24;
+    }
+
+    private static int readIntLE(final RandomAccessFile raf) throws IOException {
+        return Integer.reverseBytes(raf.readInt());
+    }
+
+    private static long readUnsignedIntLE(final RandomAccessFile raf) throws IOException {
+        return readIntLE(raf) & 0xffffffffL;
+    }
+
+    private static int readUnsignedShortLE(final RandomAccessFile raf) throws IOException {
+        return Short.reverseBytes(raf.readShort()) & 0xffff;
+    }
+
+}